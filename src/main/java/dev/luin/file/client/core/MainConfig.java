@@ -17,15 +17,19 @@ package dev.luin.file.client.core;
 
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableMBeanExport;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.PropertySource;
+import org.springframework.jmx.support.RegistrationPolicy;
 
 import dev.luin.file.client.core.datasource.DataSourceConfig;
 import dev.luin.file.client.core.download.DownloadClientConfig;
 import dev.luin.file.client.core.file.FileSystemConfig;
+import dev.luin.file.client.core.http.HttpClientConfig;
 import dev.luin.file.client.core.querydsl.QueryDSLConfig;
 import dev.luin.file.client.core.security.KeyStoreConfig;
 import dev.luin.file.client.core.service.ServiceConfig;
+import dev.luin.file.client.core.task.TaskConfig;
 import dev.luin.file.client.core.transaction.TransactionManagerConfig;
 import dev.luin.file.client.core.upload.UploadClientConfig;
 
@@ -34,12 +38,15 @@ import dev.luin.file.client.core.upload.UploadClientConfig;
 	DataSourceConfig.class,
 	DownloadClientConfig.class,
 	FileSystemConfig.class,
+	HttpClientConfig.class,
 	KeyStoreConfig.class,
 	QueryDSLConfig.class,
 	ServiceConfig.class,
+	TaskConfig.class,
 	TransactionManagerConfig.class,
 	UploadClientConfig.class
 })
+@EnableMBeanExport(registration = RegistrationPolicy.REPLACE_EXISTING)
 @PropertySource(value = {"classpath:dev/luin/file/client/core/default.properties"}, ignoreResourceNotFound = true)
 public class MainConfig
 {
@@ -46,17 +46,18 @@ public class DataSourceConfig
 	@Getter
 	public enum Location
 	{
-		DB2("jdbc:db2:",BASEPATH + "db2"),
-		H2("jdbc:h2:",BASEPATH + "h2"),
-		HSQLDB("jdbc:hsqldb:",BASEPATH + "hsqldb"),
-		MARIADB("jdbc:mariadb:",BASEPATH + "mysql"),
-		MSSQL("jdbc:sqlserver:",BASEPATH + "mssql"),
-		MYSQL("jdbc:mysql:",BASEPATH + "mysql"),
-		ORACLE("jdbc:oracle:",BASEPATH + "oracle"),
-		POSTGRES("jdbc:postgresql:",BASEPATH + "postgresql");
+		DB2("jdbc:db2:",BASEPATH + "db2",false),
+		H2("jdbc:h2:",BASEPATH + "h2",false),
+		HSQLDB("jdbc:hsqldb:",BASEPATH + "hsqldb",false),
+		MARIADB("jdbc:mariadb:",BASEPATH + "mysql",false),
+		MSSQL("jdbc:sqlserver:",BASEPATH + "mssql",false),
+		MYSQL("jdbc:mysql:",BASEPATH + "mysql",true),
+		ORACLE("jdbc:oracle:",BASEPATH + "oracle",false),
+		POSTGRES("jdbc:postgresql:",BASEPATH + "postgresql",true);
 		
 		String jdbcUrl;
 		String location;
+		boolean skipLocked;
 		
 		public static Optional<String> getLocation(String jdbcUrl)
 		{
@@ -65,6 +66,13 @@ public class DataSourceConfig
 					.map(l -> l.location)
 					.findFirst();
 		}
+
+		public static boolean isSkipLockedSupported(String jdbcUrl)
+		{
+			return Arrays.stream(values())
+					.filter(l -> jdbcUrl.startsWith(l.jdbcUrl))
+					.anyMatch(l -> l.skipLocked);
+		}
 	}
 
 	@Value("${jdbc.driverClassName}")
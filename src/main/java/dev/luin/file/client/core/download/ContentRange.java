@@ -0,0 +1,45 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.download;
+
+import java.util.regex.Pattern;
+
+import io.vavr.control.Option;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+import lombok.val;
+
+/**
+ * Content-Range header of a 206 response, e.g. bytes 0-1023/4096. The complete length is null when the server returns * instead.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class ContentRange
+{
+	private static final Pattern PATTERN = Pattern.compile("^bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)$",Pattern.CASE_INSENSITIVE);
+	long first;
+	long last;
+	Long length;
+
+	public static Option<ContentRange> of(String value)
+	{
+		val matcher = PATTERN.matcher(value != null ? value.trim() : "");
+		if (!matcher.matches())
+			return Option.none();
+		return Option.of(new ContentRange(Long.parseLong(matcher.group(1)),Long.parseLong(matcher.group(2)),"*".equals(matcher.group(3)) ? null : Long.valueOf(matcher.group(3))));
+	}
+}
@@ -15,11 +15,9 @@
  */
 package dev.luin.file.client.core.download;
 
-import java.io.IOException;
-import java.security.GeneralSecurityException;
+import java.time.Duration;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -27,12 +25,19 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 
 import com.querydsl.sql.SQLQueryFactory;
 
+import dev.luin.file.client.core.datasource.DataSourceConfig.Location;
 import dev.luin.file.client.core.file.FileSystem;
-import dev.luin.file.client.core.security.KeyStore;
-import dev.luin.file.client.core.security.TrustStore;
-import dev.luin.file.client.core.upload.SSLFactoryManager;
+import dev.luin.file.client.core.http.BandwidthLimiter;
+import dev.luin.file.client.core.http.CompressionStatistics;
+import dev.luin.file.client.core.http.HttpConnectionFactory;
+import dev.luin.file.client.core.task.ErrorClassifier;
+import dev.luin.file.client.core.task.ExponentialBackoffRetryPolicy;
+import dev.luin.file.client.core.task.HostGuard;
+import dev.luin.file.client.core.task.NodeId;
+import dev.luin.file.client.core.task.RetryPolicy;
+import dev.luin.file.client.core.task.TaskNotifier;
+import dev.luin.file.client.core.upload.UploadTaskManager;
 import lombok.AccessLevel;
-import lombok.val;
 import lombok.experimental.FieldDefaults;
 
 @Configuration
@@ -41,49 +46,109 @@ import lombok.experimental.FieldDefaults;
 public class DownloadClientConfig
 {
 	@Autowired
-	@Qualifier("clientKeyStore")
-	KeyStore clientKeyStore;
+	HttpConnectionFactory httpConnectionFactory;
 	@Autowired
-	TrustStore trustStore;
-	@Value("${https.enabledProtocols}")
-	String[] enabledProtocols;
-	@Value("${https.enabledCipherSuites}")
-	String[] enabledCipherSuites;
-	@Value("${https.verifyHostnames}")
-	boolean verifyHostnames;
+	BandwidthLimiter bandwidthLimiter;
+	@Autowired
+	CompressionStatistics compressionStatistics;
 	@Autowired
 	FileSystem fs;
 	@Autowired
 	SQLQueryFactory queryFactory;
+	@Autowired
+	TaskNotifier taskNotifier;
+	@Autowired
+	ErrorClassifier errorClassifier;
+	@Autowired
+	HostGuard hostGuard;
+	@Autowired
+	UploadTaskManager uploadTaskManager;
+	@Value("${jdbc.url}")
+	String jdbcUrl;
+	@Value("${taskHandler.nodeId}")
+	String nodeId;
 	@Value("${downloadTask.retry.maxAttempts}")
 	int maxRetries;
 	@Value("${downloadTask.retry.interval}")
 	int retryInterval;
-	@Value("${downloadTask.retry.maxMultiplier}")
-	int retryMaxMultiplier;
+	@Value("${downloadTask.retry.maxInterval}")
+	int retryMaxInterval;
+	@Value("${downloadTask.coalescing.freshnessWindow}")
+	long freshnessWindow;
+	@Value("${downloadTaskHandler.segments}")
+	int segments;
+	@Value("${downloadTaskHandler.minSegmentSize}")
+	long minSegmentSize;
+	@Value("${downloadTaskHandler.headless}")
+	boolean headless;
+	@Value("${downloadTaskHandler.compression.urlPattern}")
+	String compressionUrlPattern;
+	@Value("${downloadTaskHandler.delay}")
+	long delay;
+	@Value("${downloadTaskHandler.maxDelay}")
+	long maxDelay;
+	@Value("${downloadTaskHandler.concurrency}")
+	int concurrency;
+	@Value("${downloadTaskHandler.shutdownTimeout}")
+	long shutdownTimeout;
+	@Value("${downloadTaskHandler.leaseDuration}")
+	long leaseDuration;
+	@Value("${downloadTaskHandler.scheduleWindow}")
+	long scheduleWindow;
+	@Value("${downloadTaskHandler.scheduleRefresh}")
+	long scheduleRefresh;
+
+	@Bean(destroyMethod = "close")
+	public DownloadTaskHandler downloadTaskHandler() 
+	{
+		return DownloadTaskHandler.builder()
+				.connectionFactory(httpConnectionFactory)
+				.bandwidthLimiter(bandwidthLimiter)
+				.compressionStatistics(compressionStatistics)
+				.fs(fs)
+				.downloadTaskManager(downloadTaskManager())
+				.retryPolicy(downloadRetryPolicy())
+				.segments(segments)
+				.minSegmentSize(minSegmentSize)
+				.headless(headless)
+				.compressionUrlPattern(compressionUrlPattern)
+				.isRelayed(fileId -> uploadTaskManager.getTask(fileId).isDefined())
+				.restartRelay(uploadTaskManager::restartTask)
+				.hostGuard(hostGuard)
+				.taskNotifier(taskNotifier)
+				.concurrency(concurrency)
+				.shutdownTimeout(shutdownTimeout)
+				.delay(delay)
+				.maxDelay(maxDelay)
+				.build();
+	}
 
 	@Bean
-	public DownloadTaskHandler downloadTaskHandler() throws GeneralSecurityException, IOException, Exception
+	public RetryPolicy downloadRetryPolicy()
 	{
-		val sslFactoryManager = SSLFactoryManager.builder()
-				.keyStore(clientKeyStore)
-				.trustStore(trustStore)
-				.enabledProtocols(enabledProtocols)
-				.enabledCipherSuites(enabledCipherSuites)
-				.verifyHostnames(verifyHostnames)
+		return ExponentialBackoffRetryPolicy.builder()
+				.maxAttempts(maxRetries)
+				.baseDelay(Duration.ofMinutes(retryInterval))
+				.maxDelay(Duration.ofMinutes(retryMaxInterval))
+				.errorClassifier(errorClassifier)
 				.build();
-		return new DownloadTaskHandler(sslFactoryManager,fs,downloadTaskManager(),maxRetries);
 	}
 
 	@Bean
 	public DownloadTaskManager downloadTaskManager()
 	{
-		return new DownloadTaskManager(downloadTaskDAO(),retryInterval,retryMaxMultiplier);
+		return new DownloadTaskManager(downloadTaskDAO(),downloadRetryPolicy(),NodeId.of(nodeId),leaseDuration,scheduleWindow,scheduleRefresh,taskNotifier);
+	}
+
+	@Bean
+	public DownloadCoalescer downloadCoalescer()
+	{
+		return new DownloadCoalescer(httpConnectionFactory,downloadTaskManager(),fileId -> uploadTaskManager.getTask(fileId).isDefined(),freshnessWindow);
 	}
 
 	@Bean
 	public DownloadTaskDAO downloadTaskDAO()
 	{
-		return new DownloadTaskDAOImpl(queryFactory);
+		return new DownloadTaskDAOImpl(queryFactory,Location.isSkipLockedSupported(jdbcUrl));
 	}
 }
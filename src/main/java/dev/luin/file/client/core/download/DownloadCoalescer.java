@@ -0,0 +1,87 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.download;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+
+import dev.luin.file.client.core.http.HttpConnectionFactory;
+import io.vavr.Function1;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@AllArgsConstructor
+public class DownloadCoalescer
+{
+	@NonNull
+	HttpConnectionFactory connectionFactory;
+	@NonNull
+	DownloadTaskManager downloadTaskManager;
+	@NonNull
+	Function1<Long,Boolean> isRelayed;
+	long freshnessWindow;
+
+	/**
+	 * Attaches to a task that downloads the same URL in the same window. Call it outside a transaction, because a succeeded download is validated with a request to the server.
+	 * The attach itself is a single update that checks again that the task still exists and has not failed.
+	 */
+	public Option<DownloadTask> attach(String url, Instant startDate, Instant endDate)
+	{
+		if (freshnessWindow <= 0)
+			return Option.none();
+		// a relayed file is deleted with its upload task, so it cannot be shared
+		return downloadTaskManager.getTasks(url,Instant.now().minusMillis(freshnessWindow))
+				.filter(t -> !isRelayed.apply(t.getFileId()))
+				// the window is part of the request, a task with another window would download too early or give up too soon
+				.filter(t -> isSameTime(t.getStartDate(),startDate) && isSameTime(t.getEndDate(),endDate))
+				.find(t -> t.getStatus() != DownloadStatus.SUCCEEDED || isUnchanged(t))
+				.filter(t -> downloadTaskManager.attachTask(t.getFileId()));
+	}
+
+	private static boolean isSameTime(final Instant time, final Instant other)
+	{
+		// some databases store timestamps with a precision of a second or less
+		return time == null || other == null ? time == other : Duration.between(time,other).abs().compareTo(Duration.ofSeconds(1)) < 0;
+	}
+
+	private boolean isUnchanged(DownloadTask task)
+	{
+		return downloadTaskManager.getValidator(task.getFileId())
+				.exists(v -> Try.of(() -> isUnchanged(task.getUrl(),v))
+						.onFailure(e -> log.warn("Unable to validate {}",task.getUrl(),e))
+						.getOrElse(false));
+	}
+
+	private boolean isUnchanged(final URL url, final String validator) throws IOException
+	{
+		val connection = connectionFactory.createConnection(url);
+		connection.setRequestMethod("HEAD");
+		// the validator is either a strong ETag or a Last-Modified date
+		connection.setRequestProperty(validator.startsWith("\"") ? "If-None-Match" : "If-Modified-Since",validator);
+		return connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+	}
+}
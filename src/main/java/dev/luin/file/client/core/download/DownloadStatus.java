@@ -17,5 +17,5 @@ package dev.luin.file.client.core.download;
 
 public enum DownloadStatus
 {
-	CREATED, SUCCEEDED, FAILED;
+	CREATED, SUCCEEDED, FAILED, RUNNING;
 }
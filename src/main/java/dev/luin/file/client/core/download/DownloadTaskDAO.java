@@ -15,6 +15,10 @@
  */
 package dev.luin.file.client.core.download;
 
+import java.net.URL;
+import java.time.Instant;
+
+import io.vavr.Tuple2;
 import io.vavr.collection.List;
 import io.vavr.collection.Seq;
 import io.vavr.control.Option;
@@ -22,10 +26,24 @@ import io.vavr.control.Option;
 public interface DownloadTaskDAO
 {
 	Option<DownloadTask> getTask(long fileId);
-	Option<DownloadTask> getNextTask();
+	Seq<DownloadTask> claimNextTasks(String owner, Instant leaseTime, int maxResults);
+	Option<DownloadTask> claimTask(String owner, long fileId, Instant leaseTime);
+	long renewLeases(String owner, Seq<Long> fileIds, Instant leaseTime);
+	Seq<Tuple2<Long,Instant>> getScheduledTasks(Instant until, int maxResults);
+	Option<Instant> getNextScheduleTime();
 	Seq<DownloadTask> getTasks();
 	Seq<DownloadTask> getTasks(List<DownloadStatus> statuses);
+	Seq<DownloadTask> getTasks(List<DownloadStatus> statuses, Long afterFileId, Instant from, Instant to, int maxResults);
 	DownloadTask insert(DownloadTask task);
-	long update(DownloadTask task);
+	long update(String owner, DownloadTask task);
+	Seq<DownloadTask> getTasks(URL url, Instant since);
+	long attach(long fileId);
+	long detach(long fileId);
+	Option<String> getValidator(long fileId);
+	long updateValidator(long fileId, String validator);
 	long delete(long fileId);
+	Seq<DownloadSegment> getSegments(long fileId);
+	DownloadSegment insertSegment(DownloadSegment segment);
+	long updateSegment(DownloadSegment segment);
+	long deleteSegments(long fileId);
 }
@@ -15,21 +15,28 @@
  */
 package dev.luin.file.client.core.download;
 
+import java.net.URL;
 import java.time.Instant;
 
 import org.springframework.transaction.annotation.Transactional;
 
+import com.querydsl.core.BooleanBuilder;
+import com.querydsl.core.QueryFlag.Position;
 import com.querydsl.core.types.ConstructorExpression;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Predicate;
 import com.querydsl.core.types.Projections;
 import com.querydsl.sql.SQLQueryFactory;
 
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
 import io.vavr.collection.List;
 import io.vavr.collection.Seq;
 import io.vavr.control.Option;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.NonNull;
+import lombok.val;
 import lombok.experimental.FieldDefaults;
 
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
@@ -39,9 +46,13 @@ public class DownloadTaskDAOImpl implements DownloadTaskDAO
 {
 	@NonNull
 	SQLQueryFactory queryFactory;
+	boolean skipLocked;
 	QDownloadTask table = QDownloadTask.downloadTask;
 	Expression<?>[] downloadTaskColumns = {table.fileId,table.url,table.startDate,table.endDate,table.timestamp,table.status,table.statusTime,table.scheduleTime,table.retries};
 	ConstructorExpression<DownloadTask> downloadTaskProjection = Projections.constructor(DownloadTask.class,downloadTaskColumns);
+	QDownloadSegment segmentTable = QDownloadSegment.downloadSegment;
+	Expression<?>[] downloadSegmentColumns = {segmentTable.fileId,segmentTable.firstByte,segmentTable.lastByte,segmentTable.nextByte};
+	ConstructorExpression<DownloadSegment> downloadSegmentProjection = Projections.constructor(DownloadSegment.class,downloadSegmentColumns);
 
 	@Override
 	public Option<DownloadTask> getTask(long fileId)
@@ -53,14 +64,110 @@ public class DownloadTaskDAOImpl implements DownloadTaskDAO
 	}
 
 	@Override
-	public Option<DownloadTask> getNextTask()
+	public Seq<DownloadTask> claimNextTasks(String owner, Instant leaseTime, int maxResults)
 	{
-		return Option.of(queryFactory.select(downloadTaskProjection)
+		val now = Instant.now();
+		return skipLocked ? claimNextTasksSkipLocked(owner,leaseTime,maxResults,now) : claimNextTasksOptimistic(owner,leaseTime,maxResults,now);
+	}
+
+	private Seq<DownloadTask> claimNextTasksSkipLocked(String owner, Instant leaseTime, int maxResults, Instant now)
+	{
+		val query = queryFactory.select(downloadTaskProjection)
+				.from(table)
+				.where(isClaimable(now))
+				.orderBy(table.scheduleTime.asc())
+				.limit(maxResults)
+				.forUpdate();
+		query.addFlag(Position.END," skip locked");
+		val result = List.ofAll(query.fetch());
+		if (!result.isEmpty())
+			queryFactory.update(table)
+					.set(table.status,DownloadStatus.RUNNING)
+					.set(table.owner,owner)
+					.set(table.leaseTime,leaseTime)
+					.where(table.fileId.in(result.map(t -> t.getFileId()).asJava()))
+					.execute();
+		return result.map(t -> t.withStatus(DownloadStatus.RUNNING));
+	}
+
+	private Seq<DownloadTask> claimNextTasksOptimistic(String owner, Instant leaseTime, int maxResults, Instant now)
+	{
+		return List.ofAll(queryFactory.select(downloadTaskProjection)
+				.from(table)
+				.where(isClaimable(now))
+				.orderBy(table.scheduleTime.asc())
+				.limit(maxResults)
+				.fetch())
+				.filter(t -> queryFactory.update(table)
+						.set(table.status,DownloadStatus.RUNNING)
+						.set(table.owner,owner)
+						.set(table.leaseTime,leaseTime)
+						.where(table.fileId.eq(t.getFileId())
+								.and(isClaimable(now)))
+						.execute() > 0)
+				.map(t -> t.withStatus(DownloadStatus.RUNNING));
+	}
+
+	@Override
+	public Option<DownloadTask> claimTask(String owner, long fileId, Instant leaseTime)
+	{
+		val claimed = queryFactory.update(table)
+				.set(table.status,DownloadStatus.RUNNING)
+				.set(table.owner,owner)
+				.set(table.leaseTime,leaseTime)
+				.where(table.fileId.eq(fileId)
+						.and(isClaimable(Instant.now())))
+				.execute() > 0;
+		return claimed ? getTask(fileId) : Option.none();
+	}
+
+	private Predicate isClaimable(Instant now)
+	{
+		return table.status.eq(DownloadStatus.CREATED).and(table.scheduleTime.before(now))
+				.or(table.status.eq(DownloadStatus.RUNNING).and(table.leaseTime.isNull().or(table.leaseTime.before(now))));
+	}
+
+	@Override
+	public long renewLeases(String owner, Seq<Long> fileIds, Instant leaseTime)
+	{
+		return fileIds.isEmpty() ? 0 : queryFactory.update(table)
+				.set(table.leaseTime,leaseTime)
+				.where(table.fileId.in(fileIds.asJava())
+						.and(table.status.eq(DownloadStatus.RUNNING))
+						.and(table.owner.eq(owner)))
+				.execute();
+	}
+
+	@Override
+	public Seq<Tuple2<Long,Instant>> getScheduledTasks(Instant until, int maxResults)
+	{
+		val scheduled = List.ofAll(queryFactory.select(table.fileId,table.scheduleTime)
 				.from(table)
-				.where(table.scheduleTime.before(Instant.now())
-						.and(table.status.eq(DownloadStatus.CREATED)))
+				.where(table.status.eq(DownloadStatus.CREATED)
+						.and(table.scheduleTime.before(until)))
 				.orderBy(table.scheduleTime.asc())
-				.fetchFirst());
+				.limit(maxResults)
+				.fetch())
+				.map(t -> Tuple.of(t.get(table.fileId),t.get(table.scheduleTime)));
+		// running tasks become claimable again when their lease expires
+		val leased = List.ofAll(queryFactory.select(table.fileId,table.leaseTime)
+				.from(table)
+				.where(table.status.eq(DownloadStatus.RUNNING)
+						.and(table.leaseTime.isNull().or(table.leaseTime.before(until))))
+				.orderBy(table.leaseTime.asc())
+				.limit(maxResults)
+				.fetch())
+				.map(t -> Tuple.of(t.get(table.fileId),Option.of(t.get(table.leaseTime)).getOrElse(Instant.EPOCH)));
+		return scheduled.appendAll(leased).sortBy(Tuple2::_2).take(maxResults);
+	}
+
+	@Override
+	public Option<Instant> getNextScheduleTime()
+	{
+		return Option.of(queryFactory.select(table.scheduleTime.min())
+				.from(table)
+				.where(table.status.eq(DownloadStatus.CREATED))
+				.fetchOne());
 	}
 
 	@Override
@@ -82,6 +189,26 @@ public class DownloadTaskDAOImpl implements DownloadTaskDAO
 				.fetch());
 	}
 
+	@Override
+	public Seq<DownloadTask> getTasks(List<DownloadStatus> statuses, Long afterFileId, Instant from, Instant to, int maxResults)
+	{
+		val where = new BooleanBuilder();
+		if (!statuses.isEmpty())
+			where.and(table.status.in(statuses.asJava()));
+		if (afterFileId != null)
+			where.and(table.fileId.gt(afterFileId));
+		if (from != null)
+			where.and(table.timestamp.goe(from));
+		if (to != null)
+			where.and(table.timestamp.lt(to));
+		return List.ofAll(queryFactory.select(downloadTaskProjection)
+				.from(table)
+				.where(where)
+				.orderBy(table.fileId.asc())
+				.limit(maxResults)
+				.fetch());
+	}
+
 	@Override
 	public DownloadTask insert(DownloadTask task)
 	{
@@ -100,13 +227,68 @@ public class DownloadTaskDAOImpl implements DownloadTaskDAO
 	}
 
 	@Override
-	public long update(DownloadTask task)
+	public long update(String owner, DownloadTask task)
 	{
 		return queryFactory.update(table)
+				.setNull(table.owner)
+				.setNull(table.leaseTime)
 				.set(table.status,task.getStatus())
+				.set(table.statusTime,task.getStatusTime())
 				.set(table.scheduleTime,task.getScheduleTime())
 				.set(table.retries,task.getRetries())
-				.where(table.fileId.eq(task.getFileId()))
+				.where(table.fileId.eq(task.getFileId())
+						.and(table.status.eq(DownloadStatus.RUNNING))
+						.and(table.owner.eq(owner)))
+				.execute();
+	}
+
+	@Override
+	public Seq<DownloadTask> getTasks(URL url, Instant since)
+	{
+		return List.ofAll(queryFactory.select(downloadTaskProjection)
+				.from(table)
+				.where(table.url.eq(url)
+						.and(table.status.in(DownloadStatus.CREATED,DownloadStatus.RUNNING)
+								.or(table.status.eq(DownloadStatus.SUCCEEDED).and(table.statusTime.goe(since)))))
+				.orderBy(table.fileId.desc())
+				.fetch());
+	}
+
+	@Override
+	public long attach(long fileId)
+	{
+		return queryFactory.update(table)
+				.set(table.refCount,table.refCount.add(1))
+				.where(table.fileId.eq(fileId)
+						.and(table.status.ne(DownloadStatus.FAILED)))
+				.execute();
+	}
+
+	@Override
+	public long detach(long fileId)
+	{
+		return queryFactory.update(table)
+				.set(table.refCount,table.refCount.subtract(1))
+				.where(table.fileId.eq(fileId)
+						.and(table.refCount.gt(1)))
+				.execute();
+	}
+
+	@Override
+	public Option<String> getValidator(long fileId)
+	{
+		return Option.of(queryFactory.select(table.validator)
+				.from(table)
+				.where(table.fileId.eq(fileId))
+				.fetchOne());
+	}
+
+	@Override
+	public long updateValidator(long fileId, String validator)
+	{
+		return queryFactory.update(table)
+				.set(table.validator,validator)
+				.where(table.fileId.eq(fileId))
 				.execute();
 	}
 
@@ -117,4 +299,44 @@ public class DownloadTaskDAOImpl implements DownloadTaskDAO
 				.where(table.fileId.eq(fileId))
 				.execute();
 	}
+
+	@Override
+	public Seq<DownloadSegment> getSegments(long fileId)
+	{
+		return List.ofAll(queryFactory.select(downloadSegmentProjection)
+				.from(segmentTable)
+				.where(segmentTable.fileId.eq(fileId))
+				.orderBy(segmentTable.firstByte.asc())
+				.fetch());
+	}
+
+	@Override
+	public DownloadSegment insertSegment(DownloadSegment segment)
+	{
+		queryFactory.insert(segmentTable)
+				.set(segmentTable.fileId,segment.getFileId())
+				.set(segmentTable.firstByte,segment.getFirstByte())
+				.set(segmentTable.lastByte,segment.getLastByte())
+				.set(segmentTable.nextByte,segment.getNextByte())
+				.execute();
+		return segment;
+	}
+
+	@Override
+	public long updateSegment(DownloadSegment segment)
+	{
+		return queryFactory.update(segmentTable)
+				.set(segmentTable.nextByte,segment.getNextByte())
+				.where(segmentTable.fileId.eq(segment.getFileId())
+						.and(segmentTable.firstByte.eq(segment.getFirstByte())))
+				.execute();
+	}
+
+	@Override
+	public long deleteSegments(long fileId)
+	{
+		return queryFactory.delete(segmentTable)
+				.where(segmentTable.fileId.eq(fileId))
+				.execute();
+	}
 }
@@ -18,19 +18,39 @@ package dev.luin.file.client.core.download;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.time.Instant;
+import java.util.regex.Pattern;
 
-import javax.net.ssl.HttpsURLConnection;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.lang3.StringUtils;
 
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
 
+import dev.luin.file.client.core.file.FSFile;
 import dev.luin.file.client.core.file.FileSystem;
-import dev.luin.file.client.core.upload.SSLFactoryManager;
+import dev.luin.file.client.core.file.MissingFileException;
+import dev.luin.file.client.core.http.BandwidthLimiter;
+import dev.luin.file.client.core.http.CompressionStatistics;
+import dev.luin.file.client.core.http.ContentEncoding;
+import dev.luin.file.client.core.http.HttpConnectionFactory;
+import dev.luin.file.client.core.http.HttpException;
+import dev.luin.file.client.core.http.Throttle;
+import dev.luin.file.client.core.task.HostGuard;
+import dev.luin.file.client.core.task.RetryPolicy;
+import dev.luin.file.client.core.task.TaskDispatcher;
+import dev.luin.file.client.core.task.TaskExecutor;
+import dev.luin.file.client.core.task.TaskNotifier;
 import io.tus.java.client.ProtocolException;
 import io.tus.java.client.TusExecutor;
+import io.vavr.Function1;
+import io.vavr.collection.Seq;
 import io.vavr.control.Option;
 import io.vavr.control.Try;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.val;
 import lombok.var;
@@ -39,59 +59,300 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
-@AllArgsConstructor
-public class DownloadTaskHandler
+public class DownloadTaskHandler implements AutoCloseable
 {
 	@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 	@AllArgsConstructor
-	private static class DownloadTaskExecutor extends TusExecutor
+	private static class DownloadTaskExecutor extends TaskExecutor
 	{
+		private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
 		@NonNull
-		SSLFactoryManager sslFactoryManager;
+		HttpConnectionFactory connectionFactory;
+		@NonNull
+		HostGuard hostGuard;
+		@NonNull
+		BandwidthLimiter bandwidthLimiter;
+		@NonNull
+		CompressionStatistics compressionStatistics;
 		@NonNull
 		FileSystem fs;
 		@NonNull
+		DownloadTaskManager downloadTaskManager;
+		@NonNull
 		DownloadTask task;
+		@NonNull
+		@Getter(AccessLevel.PROTECTED)
+		RetryPolicy retryPolicy;
+		int segments;
+		long minSegmentSize;
+		boolean headless;
+		boolean compressed;
+		boolean relayed;
+		@NonNull
+		Function1<Long,Boolean> restartRelay;
 		
 		@Override
 		protected void makeAttempt() throws ProtocolException, IOException
 		{
-			val file = fs.findFile(task.getFileId()).getOrElseThrow(() -> new IllegalStateException("File " + task.getFileId() + " not found"));
+			var file = fs.findFile(task.getFileId()).getOrElseThrow(() -> new MissingFileException("File " + task.getFileId() + " not found"));
 			log.info("Downloading {}",file);
-			var connection = createConnection(task.getUrl());
+			val throttle = bandwidthLimiter.createThrottle(task.getUrl());
+			var validator = downloadTaskManager.getValidator(task.getFileId());
+			val fileSegments = downloadTaskManager.getSegments(task.getFileId());
+			if (!fileSegments.isEmpty())
+			{
+				try
+				{
+					downloadSegments(file,fileSegments,validator,throttle);
+					return;
+				}
+				catch (ResourceChangedException e)
+				{
+					downloadTaskManager.deleteSegments(task.getFileId());
+					file = restart(file,null);
+					validator = Option.none();
+				}
+			}
+			if (compressed)
+			{
+				downloadCompressed(file,throttle);
+				return;
+			}
+			if (headless && downloadHeadless(file,validator,throttle))
+				return;
+			val connection = createConnection(task.getUrl());
 			connection.setRequestMethod("HEAD");
-			if (connection.getResponseCode() / 100 == 2)
+			if (connection.getResponseCode() / 100 != 2)
+				throw HttpException.of(connection);
+			val acceptRanges = "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+			val newValidator = getValidator(connection);
+			if (isChanged(file,validator,newValidator))
+				file = restart(file,null);
+			val conentLength = getContentLength(connection);
+			if (conentLength.isDefined())
+				download(withHeaders(file,conentLength.get(),connection),getSegmentCount(acceptRanges,conentLength.get()),null,newValidator,throttle);
+			else
+				downloadStream(withHeaders(file,null,connection),acceptRanges,newValidator,throttle);
+		}
+
+		private boolean downloadHeadless(final FSFile file, final Option<String> validator, final Throttle throttle) throws IOException
+		{
+			// start with a ranged GET and take the length and headers from its response, which saves the round trip of the HEAD request
+			val connection = createConnection(task.getUrl(),file.getFileLength(),null,validator);
+			val contentRange = connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL
+					? ContentRange.of(connection.getHeaderField("Content-Range")).filter(r -> r.getFirst() == file.getFileLength() && r.getLength() != null)
+					: Option.<ContentRange>none();
+			// a changed file is restarted after the HEAD request
+			if (contentRange.isEmpty() || isChanged(file,validator,getValidator(connection)))
+			{
+				// the server ignores ranges or the offset lies beyond the end of the file
+				if (connection.getResponseCode() / 100 != 2 && connection.getResponseCode() != HTTP_RANGE_NOT_SATISFIABLE)
+					throw HttpException.of(connection);
+				connection.disconnect();
+				return false;
+			}
+			val conentLength = contentRange.get().getLength();
+			download(withHeaders(file,conentLength,connection),getSegmentCount(true,conentLength),connection,getValidator(connection),throttle);
+			return true;
+		}
+
+		private void download(final FSFile file, final int segmentCount, final HttpURLConnection firstConnection, final Option<String> validator, final Throttle throttle) throws IOException
+		{
+			var f = file;
+			downloadTaskManager.updateValidator(task.getFileId(),validator.getOrNull());
+			if (segmentCount > 1)
+			{
+				if (firstConnection != null)
+					firstConnection.disconnect();
+				val conentLength = f.getLength();
+				f = fs.preallocate(f.withLength(null),conentLength);
+				fs.updateFile(f);
+				val newSegments = downloadTaskManager.createSegments(task.getFileId(),conentLength,segmentCount);
+				downloadSegments(f,newSegments,validator,throttle);
+				return;
+			}
+			if (!f.isCompleted())
+			{
+				// reserve the space before any bytes move, the progress is tracked by the written bytes of the file
+				f = fs.preallocate(f,f.getLength());
+				fs.updateFile(f);
+			}
+			var connection = firstConnection;
+			var currentValidator = validator;
+			while (!f.isCompleted())
 			{
-				val conentLength = getContentLength(connection).getOrElseThrow(() -> new IllegalStateException("No Content-Length found"));
-				val contentType = connection.getContentType();
-				val filename = HeaderValue.of(connection.getHeaderField("Content-Disposition"))
-						.flatMap(h -> h.getParams().get("filename"))
-						.getOrNull();
-				var f = file.withLength(conentLength)
-						.withContentType(contentType)
-						.withName(filename);
-				while (!f.isCompleted())
+				if (connection == null)
 				{
-					connection = createConnection(task.getUrl());
-				  connection.setRequestProperty("Range","bytes=" + f.getFileLength() + "-" + f.getLength());
-				  f = fs.append(f,connection.getInputStream());
+					connection = createConnection(task.getUrl(),f.getFileLength(),f.getLength(),currentValidator);
+					if (connection.getResponseCode() / 100 != 2)
+						throw HttpException.of(connection);
+					if (connection.getResponseCode() == HttpURLConnection.HTTP_OK && f.getFileLength() > 0)
+					{
+						// the validator does not match anymore or the server ignores ranges, either way the response contains the whole file
+						val conentLength = getContentLength(connection).getOrElseThrow(() -> new IllegalStateException("No Content-Length found"));
+						currentValidator = getValidator(connection);
+						f = fs.preallocate(restart(f,conentLength),conentLength);
+						downloadTaskManager.updateValidator(task.getFileId(),currentValidator.getOrNull());
+					}
+					else
+						checkContentRange(connection,f);
 				}
-				if (f.isCompleted())
-					log.info("Downloaded {}",f);
+				try (val input = throttle.throttle(connection.getInputStream()))
+				{
+					// persist the progress regularly, so a relay can upload the bytes and a restart can resume from there
+					var fileLength = -1L;
+					while (!f.isCompleted() && f.getFileLength() > fileLength)
+					{
+						fileLength = f.getFileLength();
+						f = fs.append(f,input,0,SegmentedDownload.CHECKPOINT_SIZE);
+					}
+				}
+				connection = null;
+			}
+			if (f.isCompleted())
+				log.info("Downloaded {}",f);
+		}
+
+		private void checkContentRange(final HttpURLConnection connection, final FSFile file) throws IOException
+		{
+			// a proxy may return another range than requested, appending it would corrupt the file
+			val contentRange = connection.getHeaderField("Content-Range");
+			if (connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL && !ContentRange.of(contentRange).exists(r -> r.getFirst() == file.getFileLength()))
+				throw new IOException("Content-Range " + contentRange + " does not start at " + file.getFileLength() + " of " + file);
+		}
+
+		private void downloadStream(final FSFile file, final boolean acceptRanges, final Option<String> validator, final Throttle throttle) throws IOException
+		{
+			// the length is unknown, so the response is written as it comes in and the length is set at the end of the stream
+			log.info("Streaming {}",file);
+			var f = file;
+			if (f.getFileLength() > 0 && !acceptRanges)
+				f = restart(f,null);
+			fs.updateFile(f);
+			downloadTaskManager.updateValidator(task.getFileId(),validator.getOrNull());
+			val connection = f.getFileLength() > 0 ? createConnection(task.getUrl(),f.getFileLength(),null,validator) : createConnection(task.getUrl());
+			if (connection.getResponseCode() / 100 != 2)
+				throw HttpException.of(connection);
+			if (connection.getResponseCode() == HttpURLConnection.HTTP_OK && f.getFileLength() > 0)
+			{
+				// the validator does not match anymore, the response contains the whole file
+				f = restart(f,null);
+				downloadTaskManager.updateValidator(task.getFileId(),getValidator(connection).getOrNull());
 			}
 			else
-				throw new IllegalStateException("Unexpected response: " + connection.getResponseCode());
+				checkContentRange(connection,f);
+			try (val input = throttle.throttle(connection.getInputStream()))
+			{
+				// persist the progress regularly, so a restart can resume from there when the server accepts ranges
+				var fileLength = -1L;
+				while (f.getFileLength() > fileLength)
+				{
+					fileLength = f.getFileLength();
+					f = fs.append(f,input,0,SegmentedDownload.CHECKPOINT_SIZE);
+				}
+			}
+			f = fs.completeFile(f);
+			log.info("Downloaded {}",f);
 		}
 
-		private java.net.HttpURLConnection createConnection(final URL url) throws IOException
+		private void downloadCompressed(final FSFile file, final Throttle throttle) throws IOException
+		{
+			// ranges apply to the encoded bytes and the written bytes are decoded, so a compressed download cannot resume and always starts from zero
+			log.info("Downloading {} compressed",file);
+			var f = file.getFileLength() > 0 ? restart(file,null) : file;
+			val connection = createConnection(task.getUrl());
+			connection.setRequestProperty("Accept-Encoding",ContentEncoding.ACCEPT_ENCODING);
+			if (connection.getResponseCode() / 100 != 2)
+				throw HttpException.of(connection);
+			f = withHeaders(f,null,connection);
+			fs.updateFile(f);
+			val encoded = new CountingInputStream(throttle.throttle(connection.getInputStream()));
+			try (val input = new CountingInputStream(ContentEncoding.decode(connection.getContentEncoding(),encoded)))
+			{
+				var fileLength = -1L;
+				while (f.getFileLength() > fileLength)
+				{
+					fileLength = f.getFileLength();
+					f = fs.append(f,input,0,SegmentedDownload.CHECKPOINT_SIZE);
+				}
+				if (ContentEncoding.isEncoded(connection.getContentEncoding()))
+					compressionStatistics.recordDownload(encoded.getByteCount(),input.getByteCount());
+			}
+			f = fs.completeFile(f);
+			log.info("Downloaded {}",f);
+		}
+
+		private boolean isChanged(final FSFile file, final Option<String> validator, final Option<String> newValidator)
+		{
+			return file.getFileLength() > 0 && validator.isDefined() && !validator.equals(newValidator);
+		}
+
+		private FSFile restart(final FSFile file, final Long length) throws IOException
+		{
+			// the bytes of the old version may have been uploaded already, the upload of a relay starts when the length is known
+			if (relayed && file.getLength() != null && !restartRelay.apply(file.getId()))
+				throw new RelayConflictException(task.getUrl() + " changed during the relay of file " + file.getId());
+			log.warn("{} changed, restarting the download of {}",task.getUrl(),file);
+			return fs.resetFile(file,length);
+		}
+
+		private Option<String> getValidator(final HttpURLConnection connection)
+		{
+			// If-Range only accepts a strong ETag
+			return Option.of(connection.getHeaderField("ETag"))
+					.filter(e -> !e.startsWith("W/"))
+					.orElse(() -> Option.of(connection.getHeaderField("Last-Modified")));
+		}
+
+		private FSFile withHeaders(final FSFile file, final Long contentLength, final HttpURLConnection connection)
+		{
+			val filename = HeaderValue.of(connection.getHeaderField("Content-Disposition"))
+					.flatMap(h -> h.getParams().get("filename"))
+					.getOrNull();
+			return file.withLength(contentLength)
+					.withContentType(connection.getContentType())
+					.withName(filename);
+		}
+
+		private void downloadSegments(final FSFile file, final Seq<DownloadSegment> fileSegments, final Option<String> validator, final Throttle throttle) throws IOException
 		{
-			val connection = (HttpURLConnection)url.openConnection();
-			if (connection instanceof HttpsURLConnection)
+			log.info("Downloading {} in {} segments",file,fileSegments.size());
+			val connections = hostGuard.acquireConnections(task.getUrl(),fileSegments.size() - 1);
+			try
+			{
+				new SegmentedDownload(connectionFactory,fs,downloadTaskManager,task.getUrl(),file,validator,throttle).download(fileSegments,1 + connections);
+			}
+			finally
 			{
-				HttpsURLConnection secureConnection = (HttpsURLConnection)connection;
-				secureConnection.setSSLSocketFactory(sslFactoryManager.getSslSocketFactory());
-		  }
-			return connection;
+				hostGuard.releaseConnections(task.getUrl(),connections);
+			}
+			val length = fileSegments.map(s -> s.getLastByte() + 1).max().getOrElse(0L);
+			val f = fs.completeFile(file,length);
+			downloadTaskManager.deleteSegments(task.getFileId());
+			log.info("Downloaded {}",f);
+		}
+
+		private int getSegmentCount(final boolean acceptRanges, final long contentLength)
+		{
+			// a relay reads the file from the start while it is being downloaded
+			if (relayed || segments <= 1 || !acceptRanges)
+				return 1;
+			return (int)Math.max(1,Math.min(segments,contentLength / Math.max(1,minSegmentSize)));
+		}
+
+		private java.net.HttpURLConnection createConnection(final URL url) throws IOException
+		{
+			return connectionFactory.createConnection(url);
+		}
+
+		private HttpURLConnection createConnection(final URL url, final long first, final Long length, final Option<String> validator) throws IOException
+		{
+			val result = createConnection(url);
+			result.setRequestProperty("Range","bytes=" + first + "-" + (length != null ? length : ""));
+			// a resumed request only gets a partial response when the file has not changed
+			if (first > 0)
+				validator.forEach(v -> result.setRequestProperty("If-Range",v));
+			return result;
 		}
 
 		private Option<Long> getContentLength(java.net.HttpURLConnection connection)
@@ -102,46 +363,133 @@ public class DownloadTaskHandler
 	}
 
 	@NonNull
-	SSLFactoryManager sslFactoryManager;
+	HttpConnectionFactory connectionFactory;
+	@NonNull
+	BandwidthLimiter bandwidthLimiter;
+	@NonNull
+	CompressionStatistics compressionStatistics;
 	@NonNull
 	FileSystem fs;
 	@NonNull
 	DownloadTaskManager downloadTaskManager;
-	int maxRetries;
+	@NonNull
+	RetryPolicy retryPolicy;
+	int segments;
+	long minSegmentSize;
+	boolean headless;
+	Option<Pattern> compressionUrlPattern;
+	@NonNull
+	Function1<Long,Boolean> isRelayed;
+	@NonNull
+	Function1<Long,Boolean> restartRelay;
+	@NonNull
+	HostGuard hostGuard;
+	@NonNull
+	TaskDispatcher<DownloadTask> dispatcher;
+
+	@Builder
+	public DownloadTaskHandler(
+			@NonNull HttpConnectionFactory connectionFactory,
+			@NonNull BandwidthLimiter bandwidthLimiter,
+			@NonNull CompressionStatistics compressionStatistics,
+			@NonNull FileSystem fs,
+			@NonNull DownloadTaskManager downloadTaskManager,
+			@NonNull RetryPolicy retryPolicy,
+			int segments,
+			long minSegmentSize,
+			boolean headless,
+			String compressionUrlPattern,
+			@NonNull Function1<Long,Boolean> isRelayed,
+			@NonNull Function1<Long,Boolean> restartRelay,
+			@NonNull HostGuard hostGuard,
+			@NonNull TaskNotifier taskNotifier,
+			int concurrency,
+			long shutdownTimeout,
+			long delay,
+			long maxDelay)
+	{
+		this.connectionFactory = connectionFactory;
+		this.bandwidthLimiter = bandwidthLimiter;
+		this.compressionStatistics = compressionStatistics;
+		this.fs = fs;
+		this.downloadTaskManager = downloadTaskManager;
+		this.retryPolicy = retryPolicy;
+		this.segments = segments;
+		this.minSegmentSize = minSegmentSize;
+		this.headless = headless;
+		this.compressionUrlPattern = Option.of(compressionUrlPattern).filter(StringUtils::isNotBlank).map(Pattern::compile);
+		this.isRelayed = isRelayed;
+		this.restartRelay = restartRelay;
+		this.hostGuard = hostGuard;
+		this.dispatcher = TaskDispatcher.<DownloadTask>builder()
+				.name("downloadTaskHandler")
+				.concurrency(concurrency)
+				.shutdownTimeout(shutdownTimeout)
+				.delay(delay)
+				.maxDelay(maxDelay)
+				.getId(DownloadTask::getFileId)
+				.getNextTasks(downloadTaskManager::claimNextTasks)
+				.getNextScheduleTime(downloadTaskManager::getNextScheduleTime)
+				.renewLeases(downloadTaskManager::renewLeases)
+				.handler(t -> Try.of(() -> handle(t)).onFailure(e -> log.error("",e)))
+				.acquire(this::acquire)
+				.release(t -> hostGuard.release(t.getUrl()))
+				.requeue(t -> downloadTaskManager.createDelayedTask(t,Instant.now()))
+				.build();
+		// the schedule does not contain the tasks of other nodes until it is reloaded
+		taskNotifier.addRemoteListener(DownloadTaskManager.TASK_CHANNEL,downloadTaskManager::invalidateSchedule);
+		taskNotifier.addListener(DownloadTaskManager.TASK_CHANNEL,dispatcher::wakeUp);
+	}
 
-	@Scheduled(fixedDelayString = "${downloadTaskHandler.delay}")
-	public void run()
+	@EventListener(ContextRefreshedEvent.class)
+	public void start()
 	{
-		val task = downloadTaskManager.getNextTask();
-		task.map(t -> Try.of(() -> handle(t)).onFailure(e -> log.error("",e)));
+		fs.whenReconciled(dispatcher::start);
+	}
+
+	@Override
+	public void close()
+	{
+		dispatcher.close();
 	}
 
 	private DownloadTask handle(DownloadTask task) throws IOException
 	{
 		log.info("Start task {}",task);
-		val executor = new DownloadTaskExecutor(sslFactoryManager,fs,task);
+		val executor = new DownloadTaskExecutor(connectionFactory,hostGuard,bandwidthLimiter,compressionStatistics,fs,downloadTaskManager,task,retryPolicy,segments,minSegmentSize,headless,isCompressed(task),isRelayed.apply(task.getFileId()),restartRelay);
 		val newTask = handleTask(executor,task);
 		log.info("Finished task {}",newTask);
 		return newTask;
 	}
 
+	private boolean acquire(DownloadTask task)
+	{
+		if (hostGuard.tryAcquire(task.getUrl()))
+			return true;
+		// hand the task back, it is picked up again when the host has room or its circuit is half-open
+		downloadTaskManager.createDelayedTask(task,hostGuard.getAvailableTime(task.getUrl()));
+		return false;
+	}
+
+	private boolean isCompressed(DownloadTask task)
+	{
+		return compressionUrlPattern.exists(p -> p.matcher(task.getUrl().toString()).matches());
+	}
+
 	private DownloadTask handleTask(TusExecutor executor, DownloadTask task)
 	{
 		try
 		{
 			if (!executor.makeAttempts())
-			{
-				if (task.getRetries() < maxRetries)
-					return downloadTaskManager.createNextTask(task);
-				else
-					return downloadTaskManager.createFailedTask(task);
-			}
-			else
-				return downloadTaskManager.createSucceededTask(task);
+				return downloadTaskManager.createNextTask(task,null);
+			hostGuard.onSuccess(task.getUrl());
+			return downloadTaskManager.createSucceededTask(task);
 		}
 		catch (Exception e)
 		{
-			return downloadTaskManager.createNextTask(task);
+			log.warn("Task {} failed",task.getFileId(),e);
+			hostGuard.onFailure(task.getUrl(),e);
+			return downloadTaskManager.createNextTask(task,e);
 		}
 	}
 }
@@ -15,9 +15,14 @@
  */
 package dev.luin.file.client.core.download;
 
-import java.time.Duration;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.time.Instant;
 
+import dev.luin.file.client.core.task.RetryPolicy;
+import dev.luin.file.client.core.task.TaskNotifier;
+import dev.luin.file.client.core.task.TaskSchedule;
+import dev.luin.file.client.core.transaction.TransactionUtils;
 import io.vavr.collection.List;
 import io.vavr.collection.Seq;
 import io.vavr.control.Option;
@@ -26,24 +31,70 @@ import lombok.AllArgsConstructor;
 import lombok.NonNull;
 import lombok.val;
 import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
 
+@Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @AllArgsConstructor
 public class DownloadTaskManager
 {
+	public static final String TASK_CHANNEL = "download_task";
+	// the schedule holds a few claim batches, so a large backlog is loaded in pieces
+	private static final int SCHEDULE_BATCHES = 4;
 	@NonNull
 	DownloadTaskDAO downloadTaskDAO;
-	int retryInterval;
-	int retryMaxMultiplier;
+	@NonNull
+	RetryPolicy retryPolicy;
+	@NonNull
+	String owner;
+	long leaseDuration;
+	long scheduleWindow;
+	long scheduleRefresh;
+	@NonNull
+	TaskNotifier taskNotifier;
+	TaskSchedule schedule = new TaskSchedule();
 
 	public Option<DownloadTask> getTask(long fileId)
 	{
 		return downloadTaskDAO.getTask(fileId);
 	}
 
-	public Option<DownloadTask> getNextTask()
+	public Seq<DownloadTask> claimNextTasks(int maxResults)
+	{
+		if (scheduleWindow <= 0)
+			return downloadTaskDAO.claimNextTasks(owner,Instant.now().plusMillis(leaseDuration),maxResults);
+		val now = Instant.now();
+		refreshSchedule(now,maxResults);
+		return schedule.pollDue(now,maxResults)
+				.flatMap(id -> downloadTaskDAO.claimTask(owner,id,Instant.now().plusMillis(leaseDuration)));
+	}
+
+	private void refreshSchedule(Instant now, int batchSize)
+	{
+		if (schedule.isExpired(now))
+		{
+			val until = now.plusMillis(scheduleWindow);
+			val maxResults = batchSize * SCHEDULE_BATCHES;
+			schedule.startRefresh();
+			val entries = downloadTaskDAO.getScheduledTasks(until,maxResults);
+			// a truncated schedule only covers the window up to its last entry
+			schedule.refresh(entries,entries.size() < maxResults ? until : entries.last()._2,now.plusMillis(scheduleRefresh));
+		}
+	}
+
+	public void invalidateSchedule()
+	{
+		schedule.invalidate();
+	}
+
+	public Option<Instant> getNextScheduleTime()
+	{
+		return scheduleWindow > 0 ? Option.some(schedule.getNextTime()) : downloadTaskDAO.getNextScheduleTime();
+	}
+
+	public boolean renewLeases(Seq<Long> fileIds)
 	{
-		return downloadTaskDAO.getNextTask();
+		return downloadTaskDAO.renewLeases(owner,fileIds,Instant.now().plusMillis(leaseDuration)) > 0;
 	}
 
 	public Seq<DownloadTask> getTasks(List<DownloadStatus> statuses)
@@ -51,6 +102,11 @@ public class DownloadTaskManager
 		return statuses.length() == 0 ? downloadTaskDAO.getTasks() : downloadTaskDAO.getTasks(statuses);
 	}
 
+	public Seq<DownloadTask> getTasks(List<DownloadStatus> statuses, Long afterFileId, Instant from, Instant to, int maxResults)
+	{
+		return downloadTaskDAO.getTasks(statuses,afterFileId,from,to,maxResults);
+	}
+
 	public DownloadTask createTask(long fileId, String url)
 	{
 		return createTask(fileId,url,null,null);
@@ -59,46 +115,136 @@ public class DownloadTaskManager
 	public DownloadTask createTask(long fileId, String url, Instant startDate, Instant endDate)
 	{
 		val task = DownloadTask.of(fileId,url,startDate,endDate);
-		return downloadTaskDAO.insert(task);
+		val result = downloadTaskDAO.insert(task);
+		updateSchedule(result);
+		taskNotifier.signal(TASK_CHANNEL);
+		return result;
 	}
 
-	public DownloadTask createNextTask(DownloadTask task)
+	public DownloadTask createNextTask(DownloadTask task, Throwable cause)
 	{
 		val retries = task.getRetries() + 1;
-		Option<Instant> nextScheduleTime = getNextScheduleTime(task,retries);
+		Option<Instant> nextScheduleTime = getNextScheduleTime(task,retries,cause);
 		val result = nextScheduleTime.map(t -> task
+				.withStatus(DownloadStatus.CREATED)
 				.withScheduleTime(t)
 				.withRetries(retries))
 				.getOrElse(task.withStatus(DownloadStatus.FAILED)
 						.withStatusTime(Instant.now()));
-		downloadTaskDAO.update(result);
-		return result;
+		return update(result);
+	}
+
+	private Option<Instant> getNextScheduleTime(DownloadTask task, final int retries, final Throwable cause)
+	{
+		return retryPolicy.getDelay(retries,cause)
+				.map(d -> Instant.now().plus(d))
+				.filter(t -> task.getEndDate() == null || !t.isAfter(task.getEndDate()));
 	}
 
-	private Option<Instant> getNextScheduleTime(DownloadTask task, final int retries)
+	public DownloadTask createDelayedTask(DownloadTask task, Instant scheduleTime)
 	{
-		val result = task.getScheduleTime().plus(Duration.ofMinutes((retries > retryMaxMultiplier ? retryMaxMultiplier : retries) * retryInterval));
-		return task.getEndDate() != null && result.isAfter(task.getEndDate()) ? Option.none() : Option.of(result);
+		val result = task
+				.withStatus(DownloadStatus.CREATED)
+				.withScheduleTime(scheduleTime);
+		return update(result);
 	}
 
 	public DownloadTask createSucceededTask(DownloadTask task)
 	{
 		val result = task.withStatus(DownloadStatus.SUCCEEDED)
 				.withStatusTime(Instant.now());
-		downloadTaskDAO.update(result);
-		return result;
+		return update(result);
 	}
 
 	public DownloadTask createFailedTask(DownloadTask task)
 	{
 		val result = task.withStatus(DownloadStatus.FAILED)
 				.withStatusTime(Instant.now());
-		downloadTaskDAO.update(result);
-		return result;
+		return update(result);
+	}
+
+	private DownloadTask update(DownloadTask task)
+	{
+		if (downloadTaskDAO.update(owner,task) == 0)
+		{
+			// the lease has expired and the task has been claimed by another node or deleted in the meantime
+			log.warn("Lost lease of task {}, dropped status {}",task.getFileId(),task.getStatus());
+			return downloadTaskDAO.getTask(task.getFileId()).getOrElse(task);
+		}
+		updateSchedule(task);
+		return task;
+	}
+
+	private void updateSchedule(DownloadTask task)
+	{
+		if (scheduleWindow > 0)
+			TransactionUtils.afterCommit(() ->
+			{
+				if (task.getStatus() == DownloadStatus.CREATED)
+					schedule.add(task.getFileId(),task.getScheduleTime());
+				else
+					schedule.remove(task.getFileId());
+			});
+	}
+
+	public Seq<DownloadTask> getTasks(String url, Instant since)
+	{
+		try
+		{
+			return downloadTaskDAO.getTasks(new URL(url),since);
+		}
+		catch (MalformedURLException e)
+		{
+			throw new IllegalArgumentException("Url " + url + " is not a valid URL");
+		}
+	}
+
+	public boolean attachTask(long fileId)
+	{
+		return downloadTaskDAO.attach(fileId) > 0;
+	}
+
+	public boolean detachTask(long fileId)
+	{
+		return downloadTaskDAO.detach(fileId) > 0;
+	}
+
+	public Option<String> getValidator(long fileId)
+	{
+		return downloadTaskDAO.getValidator(fileId);
+	}
+
+	public boolean updateValidator(long fileId, String validator)
+	{
+		return downloadTaskDAO.updateValidator(fileId,validator) > 0;
 	}
 
 	public boolean deleteTask(long fileId)
 	{
+		TransactionUtils.afterCommit(() -> schedule.remove(fileId));
+		downloadTaskDAO.deleteSegments(fileId);
 		return downloadTaskDAO.delete(fileId) > 0;
 	}
+
+	public Seq<DownloadSegment> getSegments(long fileId)
+	{
+		return downloadTaskDAO.getSegments(fileId);
+	}
+
+	public Seq<DownloadSegment> createSegments(long fileId, long length, int count)
+	{
+		return DownloadSegment.of(fileId,length,count)
+				.map(s -> downloadTaskDAO.insertSegment(s));
+	}
+
+	public DownloadSegment updateSegment(DownloadSegment segment)
+	{
+		downloadTaskDAO.updateSegment(segment);
+		return segment;
+	}
+
+	public boolean deleteSegments(long fileId)
+	{
+		return downloadTaskDAO.deleteSegments(fileId) > 0;
+	}
 }
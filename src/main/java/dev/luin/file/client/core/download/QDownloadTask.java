@@ -46,6 +46,12 @@ public class QDownloadTask extends com.querydsl.sql.RelationalPathBase<QDownload
 
     public final NumberPath<Long> fileId = createNumber("fileId", Long.class);
 
+    public final DateTimePath<java.time.Instant> leaseTime = createDateTime("leaseTime", java.time.Instant.class);
+
+    public final StringPath owner = createString("owner");
+
+    public final NumberPath<Integer> refCount = createNumber("refCount", Integer.class);
+
     public final NumberPath<Integer> retries = createNumber("retries", Integer.class);
 
     public final DateTimePath<java.time.Instant> scheduleTime = createDateTime("scheduleTime", java.time.Instant.class);
@@ -60,6 +66,8 @@ public class QDownloadTask extends com.querydsl.sql.RelationalPathBase<QDownload
 
     public final SimplePath<java.net.URL> url = createSimple("url",java.net.URL.class);
 
+    public final StringPath validator = createString("validator");
+
     public final com.querydsl.sql.ForeignKey<QFile> sysFk10167 = createForeignKey(fileId, "id");
 
     public QDownloadTask(String variable) {
@@ -97,6 +105,10 @@ public class QDownloadTask extends com.querydsl.sql.RelationalPathBase<QDownload
         addMetadata(statusTime, ColumnMetadata.named("status_time").withIndex(7).ofType(Types.TIMESTAMP).withSize(26).notNull());
         addMetadata(timestamp, ColumnMetadata.named("time_stamp").withIndex(5).ofType(Types.TIMESTAMP).withSize(26).notNull());
         addMetadata(url, ColumnMetadata.named("url").withIndex(2).ofType(Types.VARCHAR).withSize(256).notNull());
+        addMetadata(owner, ColumnMetadata.named("owner").withIndex(10).ofType(Types.VARCHAR).withSize(64));
+        addMetadata(leaseTime, ColumnMetadata.named("lease_time").withIndex(11).ofType(Types.TIMESTAMP).withSize(26));
+        addMetadata(validator, ColumnMetadata.named("validator").withIndex(12).ofType(Types.VARCHAR).withSize(256));
+        addMetadata(refCount, ColumnMetadata.named("ref_count").withIndex(13).ofType(Types.INTEGER).withSize(32).notNull());
     }
 
 }
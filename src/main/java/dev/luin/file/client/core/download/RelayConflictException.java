@@ -0,0 +1,32 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.download;
+
+import java.io.IOException;
+
+/**
+ * The remote file changed while it is being relayed and the upload that reads it can not be restarted yet, because it is running.
+ * The download is retried, the upload fails on its relay timeout in the meantime.
+ */
+class RelayConflictException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+
+	public RelayConflictException(String message)
+	{
+		super(message);
+	}
+}
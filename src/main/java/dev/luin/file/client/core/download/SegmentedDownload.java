@@ -0,0 +1,140 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.download;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import dev.luin.file.client.core.file.FSFile;
+import dev.luin.file.client.core.file.FileSystem;
+import dev.luin.file.client.core.http.HttpConnectionFactory;
+import dev.luin.file.client.core.http.HttpException;
+import dev.luin.file.client.core.http.Throttle;
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.val;
+import lombok.var;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@AllArgsConstructor
+class SegmentedDownload
+{
+	static final long CHECKPOINT_SIZE = 4 * 1024 * 1024;
+	@NonNull
+	HttpConnectionFactory connectionFactory;
+	@NonNull
+	FileSystem fs;
+	@NonNull
+	DownloadTaskManager downloadTaskManager;
+	@NonNull
+	URL url;
+	@NonNull
+	FSFile fsFile;
+	@NonNull
+	Option<String> validator;
+	@NonNull
+	Throttle throttle;
+
+	public void download(@NonNull final Seq<DownloadSegment> segments, final int connections) throws IOException
+	{
+		val pending = segments.filter(s -> !s.isCompleted());
+		if (pending.isEmpty())
+			return;
+		// the segments that do not get a connection wait for one of the others to finish
+		val executor = Executors.newFixedThreadPool(Math.max(1,Math.min(pending.size(),connections)));
+		try
+		{
+			val futures = pending.map(s -> executor.submit(() -> download(s)));
+			var exception = (IOException)null;
+			for (val future : futures)
+			{
+				val e = await(future);
+				if (exception == null && e != null)
+					exception = e;
+			}
+			if (exception != null)
+				throw exception;
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private IOException await(final Future<DownloadSegment> future)
+	{
+		try
+		{
+			future.get();
+			return null;
+		}
+		catch (ExecutionException e)
+		{
+			return e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return new IOException(e);
+		}
+	}
+
+	private DownloadSegment download(final DownloadSegment segment) throws IOException
+	{
+		log.debug("Downloading segment {} of {}",segment,fsFile);
+		val connection = createConnection();
+		connection.setRequestProperty("Range","bytes=" + segment.getNextByte() + "-" + segment.getLastByte());
+		validator.forEach(v -> connection.setRequestProperty("If-Range",v));
+		if (connection.getResponseCode() == HttpURLConnection.HTTP_OK && validator.isDefined())
+			throw new ResourceChangedException(url + " does not match " + validator.get());
+		if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL)
+			throw HttpException.of(connection);
+		// a proxy may return another range than requested, writing it at the offset of the segment would corrupt the file
+		val contentRange = connection.getHeaderField("Content-Range");
+		if (!ContentRange.of(contentRange).exists(r -> r.getFirst() == segment.getNextByte() && r.getLast() <= segment.getLastByte()))
+			throw new IOException("Content-Range " + contentRange + " does not match segment " + segment + " of " + fsFile);
+		var result = segment;
+		try (val input = throttle.throttle(connection.getInputStream()))
+		{
+			while (!result.isCompleted())
+			{
+				val length = Math.min(CHECKPOINT_SIZE,result.getRemaining());
+				val written = fs.writeAt(fsFile,input,result.getNextByte(),length);
+				if (written == 0)
+					throw new EOFException("Unexpected end of segment " + result + " of " + fsFile);
+				result = downloadTaskManager.updateSegment(result.withNextByte(result.getNextByte() + written));
+			}
+		}
+		log.debug("Downloaded segment {} of {}",result,fsFile);
+		return result;
+	}
+
+	private HttpURLConnection createConnection() throws IOException
+	{
+		return connectionFactory.createConnection(url);
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import io.vavr.control.Try;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
+
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+class Checksums
+{
+	MessageDigest sha256 = DigestUtils.getSha256Digest();
+	MessageDigest md5 = DigestUtils.getMd5Digest();
+	@NonFinal
+	@Getter
+	long length;
+
+	static Checksums of(final File file) throws IOException
+	{
+		return of(file,Long.MAX_VALUE);
+	}
+
+	static Checksums of(final File file, final long length) throws IOException
+	{
+		val result = new Checksums();
+		try (val input = new FileInputStream(file))
+		{
+			val buffer = new byte[64 * 1024];
+			int n;
+			while (result.length < length && (n = input.read(buffer,0,(int)Math.min(buffer.length,length - result.length))) != -1)
+				result.update(buffer,0,n);
+		}
+		return result;
+	}
+
+	OutputStream wrap(final OutputStream output)
+	{
+		return new FilterOutputStream(output)
+		{
+			@Override
+			public void write(int b) throws IOException
+			{
+				out.write(b);
+				update(new byte[]{(byte)b},0,1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException
+			{
+				out.write(b,off,len);
+				update(b,off,len);
+			}
+		};
+	}
+
+	String getSha256Checksum()
+	{
+		return digest(sha256);
+	}
+
+	String getMd5Checksum()
+	{
+		return digest(md5);
+	}
+
+	private void update(final byte[] b, final int off, final int len)
+	{
+		sha256.update(b,off,len);
+		md5.update(b,off,len);
+		length += len;
+	}
+
+	private String digest(final MessageDigest digest)
+	{
+		return Hex.encodeHexString(Try.of(() -> (MessageDigest)digest.clone()).get().digest());
+	}
+}
@@ -51,24 +51,21 @@ public class FSFile
 	Instant timestamp;
 	@With
 	Long length;
+	/**
+	 * Number of bytes written, the file on disk can be longer when it has been preallocated.
+	 */
+	@With
+	long fileLength;
+	@With
+	Instant lastModified;
 
 	public File getFile()
 	{
 		return FileSystem.getFile.apply(path);
 	}
 
-	public long getFileLength()
-	{
-		return getFile().length();
-	}
-
-	public Instant getLastModified()
-	{
-		return Instant.ofEpochMilli(getFile().lastModified());
-	}
-
 	public boolean isCompleted()
 	{
-		return length != null && length == getFileLength();
+		return length != null && length == fileLength;
 	}
 }
@@ -16,6 +16,7 @@
 package dev.luin.file.client.core.file;
 
 import java.net.URL;
+import java.time.Instant;
 
 import io.vavr.collection.Seq;
 import io.vavr.control.Option;
@@ -26,7 +27,9 @@ interface FSFileDAO
 	Option<FSFile> findFile(long id);
 	Option<FSFile> findFile(URL url);
 	Seq<FSFile> selectFiles();
+	Seq<FSFile> selectFiles(Long afterId, String contentType, Instant from, Instant to, int maxResults);
 	FSFile insertFile(@NonNull FSFile fsFile);
 	long updateFile(@NonNull FSFile fsFile);
+	long updatePath(long id, @NonNull String path);
 	long deleteFile(long id);
 }
@@ -16,9 +16,11 @@
 package dev.luin.file.client.core.file;
 
 import java.net.URL;
+import java.time.Instant;
 
 import org.springframework.transaction.annotation.Transactional;
 
+import com.querydsl.core.BooleanBuilder;
 import com.querydsl.core.types.ConstructorExpression;
 import com.querydsl.core.types.Expression;
 import com.querydsl.core.types.Projections;
@@ -41,7 +43,7 @@ class FSFileDAOImpl implements FSFileDAO
 	@NonNull
 	SQLQueryFactory queryFactory;
 	QFile table = QFile.file;
-	Expression<?>[] fsFileColumns = {table.id,table.url,table.path,table.name,table.contentType,table.md5Checksum,table.sha256Checksum,table.timestamp,table.length};
+	Expression<?>[] fsFileColumns = {table.id,table.url,table.path,table.name,table.contentType,table.md5Checksum,table.sha256Checksum,table.timestamp,table.length,table.fileLength.coalesce(0L).as(table.fileLength),table.lastModified};
 	ConstructorExpression<FSFile> fsFileProjection = Projections.constructor(FSFile.class,fsFileColumns);
 
 	@Override
@@ -71,6 +73,26 @@ class FSFileDAOImpl implements FSFileDAO
 				.fetch());
 	}
 
+	@Override
+	public Seq<FSFile> selectFiles(Long afterId, String contentType, Instant from, Instant to, int maxResults)
+	{
+		val where = new BooleanBuilder();
+		if (afterId != null)
+			where.and(table.id.gt(afterId));
+		if (contentType != null)
+			where.and(table.contentType.eq(contentType));
+		if (from != null)
+			where.and(table.timestamp.goe(from));
+		if (to != null)
+			where.and(table.timestamp.lt(to));
+		return List.ofAll(queryFactory.select(fsFileProjection)
+				.from(table)
+				.where(where)
+				.orderBy(table.id.asc())
+				.limit(maxResults)
+				.fetch());
+	}
+
 	@Override
 	public FSFile insertFile(@NonNull final FSFile fsFile)
 	{
@@ -83,6 +105,8 @@ class FSFileDAOImpl implements FSFileDAO
 				.set(table.sha256Checksum,fsFile.getSha256Checksum())
 				.set(table.timestamp,fsFile.getTimestamp())
 				.set(table.length,fsFile.getLength())
+				.set(table.fileLength,fsFile.getFileLength())
+				.set(table.lastModified,fsFile.getLastModified())
 				.executeWithKey(Long.class);
 		return fsFile.withId(id);
 	}
@@ -97,10 +121,21 @@ class FSFileDAOImpl implements FSFileDAO
 				.set(table.md5Checksum,fsFile.getMd5Checksum())
 				.set(table.sha256Checksum,fsFile.getSha256Checksum())
 				.set(table.length,fsFile.getLength())
+				.set(table.fileLength,fsFile.getFileLength())
+				.set(table.lastModified,fsFile.getLastModified())
 				.where(table.id.eq(fsFile.getId()))
 				.execute();
 	}
 
+	@Override
+	public long updatePath(final long id, @NonNull final String path)
+	{
+		return queryFactory.update(table)
+				.set(table.path,path)
+				.where(table.id.eq(id))
+				.execute();
+	}
+
 	@Override
 	public long deleteFile(final long id)
 	{
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.file;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public enum FileLayout
+{
+	FLAT
+	{
+		@Override
+		public Path resolve(String baseDir, String filename)
+		{
+			return Paths.get(baseDir,filename);
+		}
+	},
+	SHARDED
+	{
+		@Override
+		public Path resolve(String baseDir, String filename)
+		{
+			// two levels of 256 directories, derived from the (random) filename
+			final String hash = String.format("%08x",filename.hashCode());
+			return Paths.get(baseDir,hash.substring(0,2),hash.substring(2,4),filename);
+		}
+	};
+
+	public abstract Path resolve(String baseDir, String filename);
+}
@@ -16,24 +16,32 @@
 package dev.luin.file.client.core.file;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.activation.DataSource;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import dev.luin.file.client.core.http.ContentEncoding;
 import dev.luin.file.client.core.service.model.FileDataSource;
 import io.vavr.Function1;
 import io.vavr.collection.Seq;
@@ -60,10 +68,15 @@ public class FileSystem
 	@NonNull
 	String baseDir;
 	int filenameLength;
+	@NonNull
+	FileLayout layout;
+	long minFreeSpace;
+	Map<Long,Checksums> checksums = new ConcurrentHashMap<>();
+	CompletableFuture<Void> reconciled = new CompletableFuture<>();
 
 	public Option<FSFile> findFile(final long id)
 	{
-		return fsFileDAO.findFile(id);
+		return fsFileDAO.findFile(id).map(this::resolve);
 	}
 
 	public DataSource createDataSource(FSFile fsFile)
@@ -73,7 +86,18 @@ public class FileSystem
 
 	public Seq<FSFile> getFiles()
 	{
-		return fsFileDAO.selectFiles();
+		return fsFileDAO.selectFiles().map(this::resolve);
+	}
+
+	public Seq<FSFile> getFiles(final Long afterId, final String contentType, final Instant from, final Instant to, final int maxResults)
+	{
+		return fsFileDAO.selectFiles(afterId,contentType,from,to,maxResults).map(this::resolve);
+	}
+
+	private FSFile resolve(final FSFile fsFile)
+	{
+		// the written length of a file created before it was persisted is unknown until the file has been checked on disk once
+		return fsFile.getLastModified() == null ? reconcile(fsFile) : fsFile;
 	}
 
 	public FSFile createFile(
@@ -84,24 +108,25 @@ public class FileSystem
 	{
 		val path = createRandomFile().get();
 		val file = getFile.apply(path);
-		Try.of(() -> write(content,file)).getOrElseThrow(e -> new IOException("Error writing to file " + path,e));
-		val calculatedSha256Checksum = calculateSha256Checksum(file);
+		val fileChecksums = Try.of(() -> write(content,file)).getOrElseThrow(e -> new IOException("Error writing to file " + path,e));
+		val calculatedSha256Checksum = fileChecksums.getSha256Checksum();
 		if (validateChecksum(sha256checksum,calculatedSha256Checksum))
 		{
-			val md5Checksum = calculateMd5Checksum(file);
 			val result = FSFile.builder()
 					.path(path)
 					.name(filename)
 					.contentType(contentType)
-					.md5Checksum(md5Checksum)
+					.md5Checksum(fileChecksums.getMd5Checksum())
 					.sha256Checksum(calculatedSha256Checksum)
 					.timestamp(Instant.now())
-					.length(file.length())
+					.length(fileChecksums.getLength())
+					.fileLength(fileChecksums.getLength())
+					.lastModified(getLastModified(file))
 					.build();
 			return fsFileDAO.insertFile(result);
 		}
 		else
-			throw new IOException("Checksum error for file " + filename + ". Checksum of the file uploaded (" + calculatedSha256Checksum + ") is not equal to the provided checksum (" + sha256checksum + ")");
+			throw new ChecksumException("Checksum error for file " + filename + ". Checksum of the file uploaded (" + calculatedSha256Checksum + ") is not equal to the provided checksum (" + sha256checksum + ")");
 	}
 	
 	public FSFile createEmptyFile(@NonNull final String url) throws IOException
@@ -111,6 +136,7 @@ public class FileSystem
 				.url(new URL(url))
 				.path(path)
 				.timestamp(Instant.now())
+				.lastModified(getLastModified(getFile.apply(path)))
 				.build();
 		return fsFileDAO.insertFile(result);
 	}
@@ -125,41 +151,121 @@ public class FileSystem
 		val file = fsFile.getFile();
 		if (!file.exists() || fsFile.isCompleted())
 			throw new FileNotFoundException(fsFile.getUrl().toString());
-		try (val output = new FileOutputStream(file,true))
+		val fileChecksums = getChecksums(fsFile);
+		try (val output = fileChecksums.wrap(createOutputStream(file,fsFile.getFileLength())))
 		{
-			IOUtils.copyLarge(input,output);
-			if (fsFile.isCompleted())
-			{
-				fsFile = completeFile(fsFile);
-				fsFileDAO.updateFile(fsFile);
-			}
-			return fsFile;
+			val count = IOUtils.copyLarge(input,output);
+			fsFile = fsFile.withFileLength(fsFile.getFileLength() + count);
 		}
+		fsFile = fsFile.withLastModified(getLastModified(file));
+		if (fsFile.isCompleted())
+			fsFile = completeFile(fsFile,fileChecksums);
+		fsFileDAO.updateFile(fsFile);
+		return fsFile;
 	}
 
-	public FSFile append(@NonNull final FSFile fsFile, @NonNull final InputStream input, final long first, final long length) throws IOException
+	public FSFile append(@NonNull FSFile fsFile, @NonNull final InputStream input, final long first, final long length) throws IOException
 	{
 		val file = fsFile.getFile();
 		if (!file.exists() || fsFile.isCompleted())
 			throw new FileNotFoundException(fsFile.getUrl().toString());
-		try (val output = new FileOutputStream(file,true))
+		val fileChecksums = getChecksums(fsFile);
+		try (val output = fileChecksums.wrap(createOutputStream(file,fsFile.getFileLength())))
 		{
-			IOUtils.copyLarge(input,output,first,length);
-			if (fsFile.isCompleted())
-				completeFile(fsFile);
-			fsFileDAO.updateFile(fsFile);
+			val count = IOUtils.copyLarge(input,output,first,length);
+			fsFile = fsFile.withFileLength(fsFile.getFileLength() + count);
+		}
+		fsFile = fsFile.withLastModified(getLastModified(file));
+		if (fsFile.isCompleted())
+			fsFile = completeFile(fsFile,fileChecksums);
+		fsFileDAO.updateFile(fsFile);
+		return fsFile;
+	}
+
+	public FSFile preallocate(@NonNull final FSFile fsFile, final long length) throws IOException
+	{
+		val file = fsFile.getFile();
+		if (!file.exists() || fsFile.isCompleted())
+			throw new FileNotFoundException(fsFile.getUrl().toString());
+		checkFreeSpace(fsFile,length - file.length());
+		try (val output = new RandomAccessFile(file,"rw"))
+		{
+			if (output.length() < length)
+				output.setLength(length);
 			return fsFile;
 		}
 	}
 
+	public FSFile resetFile(@NonNull final FSFile fsFile, final Long length) throws IOException
+	{
+		val file = fsFile.getFile();
+		if (!file.exists())
+			throw new FileNotFoundException(fsFile.getUrl().toString());
+		checksums.remove(fsFile.getId());
+		try (val output = new RandomAccessFile(file,"rw"))
+		{
+			output.setLength(0);
+		}
+		val result = fsFile.withLength(length)
+				.withFileLength(0)
+				.withMd5Checksum(null)
+				.withSha256Checksum(null)
+				.withLastModified(getLastModified(file));
+		fsFileDAO.updateFile(result);
+		return result;
+	}
+
+	public long writeAt(@NonNull final FSFile fsFile, @NonNull final InputStream input, final long position, final long length) throws IOException
+	{
+		val file = fsFile.getFile();
+		if (!file.exists() || fsFile.isCompleted())
+			throw new FileNotFoundException(fsFile.getUrl().toString());
+		try (val output = FileChannel.open(file.toPath(),StandardOpenOption.WRITE))
+		{
+			return output.transferFrom(Channels.newChannel(input),position,length);
+		}
+	}
+
+	/**
+	 * Completes a file that has been written in segments. The checksums are always calculated by reading the whole file, so completing a large segmented download takes a full read.
+	 */
+	public FSFile completeFile(@NonNull final FSFile fsFile, final long length) throws IOException
+	{
+		val file = fsFile.getFile();
+		if (file.length() < length)
+			throw new IOException("File " + fsFile.getPath() + " is incomplete");
+		val result = completeFile(fsFile.withLength(length).withFileLength(length).withLastModified(getLastModified(file)),Checksums.of(file,length));
+		fsFileDAO.updateFile(result);
+		return result;
+	}
+
+	/**
+	 * Completes a streamed file. The checksums are taken from the in-memory state of getChecksums, which is only complete if the whole file has been written by this node since it was started.
+	 */
+	public FSFile completeFile(@NonNull final FSFile fsFile) throws IOException
+	{
+		val file = fsFile.getFile();
+		if (!file.exists() || fsFile.isCompleted())
+			throw new FileNotFoundException(fsFile.getUrl().toString());
+		// the length of a streamed file is known at the end of the stream, drop what an earlier attempt may have written beyond it
+		try (val output = new RandomAccessFile(file,"rw"))
+		{
+			if (output.length() > fsFile.getFileLength())
+				output.setLength(fsFile.getFileLength());
+		}
+		val result = completeFile(fsFile.withLength(fsFile.getFileLength()).withLastModified(getLastModified(file)),getChecksums(fsFile));
+		fsFileDAO.updateFile(result);
+		return result;
+	}
+
 	public long write(@NonNull final FSFile fsFile, @NonNull final OutputStream output) throws IOException
 	{
 		val file = fsFile.getFile();
 		if (!file.exists() || !fsFile.isCompleted())
 			throw new FileNotFoundException(fsFile.getUrl().toString());
-		try (val input = new FileInputStream(file))
+		try (val input = FileChannel.open(file.toPath(),StandardOpenOption.READ))
 		{
-			return IOUtils.copyLarge(input,output);
+			return transferTo(input,output,0,input.size());
 		}
 	}
 
@@ -168,14 +274,172 @@ public class FileSystem
 		val file = fsFile.getFile();
 		if (!file.exists() || !fsFile.isCompleted())
 			throw new FileNotFoundException(fsFile.getUrl().toString());
-		try (val input = new FileInputStream(file))
+		try (val input = FileChannel.open(file.toPath(),StandardOpenOption.READ))
+		{
+			val remaining = Math.max(input.size() - first,0);
+			return transferTo(input,output,first,length < 0 ? remaining : Math.min(length,remaining));
+		}
+	}
+
+	public void reconcile(final int pageSize)
+	{
+		try
+		{
+			log.info("Reconciling files in {}",baseDir);
+			var files = fsFileDAO.selectFiles(null,null,null,null,pageSize);
+			while (!files.isEmpty())
+			{
+				files.forEach(this::reconcile);
+				files = fsFileDAO.selectFiles(files.last().getId(),null,null,null,pageSize);
+			}
+			log.info("Reconciled files in {}",baseDir);
+		}
+		catch (RuntimeException e)
 		{
-			return IOUtils.copyLarge(input,output,first,length);
+			log.error("Error reconciling files in " + baseDir,e);
 		}
+		finally
+		{
+			reconciled.complete(null);
+		}
+	}
+
+	public void skipReconcile()
+	{
+		reconciled.complete(null);
+	}
+
+	/**
+	 * Runs the action when the startup reconciliation has finished, so tasks are not claimed for files that are still being checked.
+	 */
+	public void whenReconciled(final Runnable action)
+	{
+		reconciled.thenRun(action);
+	}
+
+	private FSFile reconcile(final FSFile fsFile)
+	{
+		val file = fsFile.getFile();
+		val fileLength = file.length();
+		val lastModified = getLastModified(file);
+		if (fsFile.getLastModified() == null)
+		{
+			// files created before the written length was persisted have not been preallocated, so the bytes on disk have been written
+			val result = fsFile.withFileLength(fsFile.getLength() != null ? Math.min(fileLength,fsFile.getLength()) : fileLength).withLastModified(lastModified);
+			fsFileDAO.updateFile(result);
+			return result;
+		}
+		// an incomplete file can be preallocated or contain bytes that were written, but not persisted
+		val written = fsFile.isCompleted() ? fileLength : Math.min(fileLength,fsFile.getFileLength());
+		if (written != fsFile.getFileLength() || (fsFile.isCompleted() && !lastModified.equals(fsFile.getLastModified())))
+		{
+			val result = fsFile.withFileLength(written).withLastModified(lastModified);
+			if (fsFile.isCompleted())
+				log.error("File {} has been changed on disk to {}",fsFile,result);
+			else
+				log.warn("File {} has been changed on disk to {}",fsFile,result);
+			checksums.remove(fsFile.getId());
+			fsFileDAO.updateFile(result);
+			return result;
+		}
+		return fsFile;
+	}
+
+	public void migrateLayout(final int pageSize)
+	{
+		log.info("Migrating files in {} to layout {}",baseDir,layout);
+		var files = fsFileDAO.selectFiles(null,null,null,null,pageSize);
+		while (!files.isEmpty())
+		{
+			files.map(this::resolve).filter(f -> f.isCompleted()).forEach(this::migrateLayout);
+			files = fsFileDAO.selectFiles(files.last().getId(),null,null,null,pageSize);
+		}
+		log.info("Migrated files in {} to layout {}",baseDir,layout);
+	}
+
+	private void migrateLayout(final FSFile fsFile)
+	{
+		val source = Paths.get(fsFile.getPath());
+		val target = layout.resolve(baseDir,source.getFileName().toString());
+		try
+		{
+			if (source.equals(target))
+			{
+				removeLeftovers(target);
+				return;
+			}
+			if (!source.toFile().exists())
+				return;
+			// the row keeps pointing at an existing file: link or copy the file first, then update the row and only then remove the old path
+			Files.createDirectories(target.getParent());
+			Files.deleteIfExists(target);
+			link(source,target);
+			fsFileDAO.updatePath(fsFile.getId(),target.toString());
+			Files.delete(source);
+			Files.deleteIfExists(getEncodedFile(source.toFile()).toPath());
+		}
+		catch (IOException | RuntimeException e)
+		{
+			log.error("Error moving file " + fsFile + " to " + target,e);
+		}
+	}
+
+	private void link(final Path source, final Path target) throws IOException
+	{
+		try
+		{
+			Files.createLink(target,source);
+		}
+		catch (UnsupportedOperationException | IOException e)
+		{
+			Files.copy(source,target,StandardCopyOption.COPY_ATTRIBUTES);
+		}
+	}
+
+	private void removeLeftovers(final Path path) throws IOException
+	{
+		// a migration that has been interrupted after the row was updated leaves the file at the path of another layout
+		for (val other : FileLayout.values())
+		{
+			val leftover = other.resolve(baseDir,path.getFileName().toString());
+			if (!leftover.equals(path) && Files.deleteIfExists(leftover))
+				log.info("Removed leftover {} of {}",leftover,path);
+		}
+	}
+
+	/**
+	 * Returns the gzip encoding of a completed file. It is written once next to the file and kept until it is deleted with the file or by deleteEncodedFile,
+	 * so every attempt of an upload sends the same encoded bytes.
+	 */
+	public File encodeFile(@NonNull final FSFile fsFile) throws IOException
+	{
+		val result = getEncodedFile(fsFile.getFile());
+		if (!result.exists())
+		{
+			val part = new File(result.getPath() + ".part");
+			try (val output = ContentEncoding.encode(new FileOutputStream(part)))
+			{
+				Files.copy(fsFile.getFile().toPath(),output);
+			}
+			Files.move(part.toPath(),result.toPath(),StandardCopyOption.ATOMIC_MOVE);
+		}
+		return result;
+	}
+
+	public void deleteEncodedFile(@NonNull final FSFile fsFile) throws IOException
+	{
+		Files.deleteIfExists(getEncodedFile(fsFile.getFile()).toPath());
+	}
+
+	private static File getEncodedFile(final File file)
+	{
+		return new File(file.getPath() + ".gz");
 	}
 
 	public boolean deleteFile(@NonNull final FSFile fsFile, final boolean force)
 	{
+		checksums.remove(fsFile.getId());
+		Try.run(() -> deleteEncodedFile(fsFile)).onFailure(t -> log.error("",t));
 		val result = Try.of(() -> fsFile.getFile().delete()).onFailure(t -> log.error("",t));
 		if (force || result.isSuccess())
 			fsFileDAO.deleteFile(fsFile.getId());
@@ -190,7 +454,8 @@ public class FileSystem
 			while (true)
 			{
 				val filename = RandomStringUtils.randomNumeric(filenameLength);
-				result = Paths.get(baseDir,filename);
+				result = layout.resolve(baseDir,filename);
+				Files.createDirectories(result.getParent());
 				if (result.toFile().createNewFile())
 					return Try.success(result.toString());
 			}
@@ -201,43 +466,79 @@ public class FileSystem
 		}
 	}
 
-	private long write(final InputStream input, final File file) throws IOException
+	private Checksums write(final InputStream input, final File file) throws IOException
 	{
-		try (val output = new FileOutputStream(file))
+		val result = new Checksums();
+		try (val output = result.wrap(new FileOutputStream(file)))
 		{
-			return IOUtils.copyLarge(input,output);
+			IOUtils.copyLarge(input,output);
+			return result;
 		}
 	}
 
-	private String calculateMd5Checksum(File file) throws IOException
+	/**
+	 * Returns the checksums of the written prefix of a file. The digest state is only kept in memory and is not persisted, so after a restart (or when the state does not match
+	 * the written length) the written prefix is read and hashed again before a resumed download continues.
+	 */
+	private Checksums getChecksums(final FSFile fsFile) throws IOException
 	{
-		try (val is = new FileInputStream(file))
-		{
-			return DigestUtils.md5Hex(is);
-		}
+		val length = fsFile.getFileLength();
+		val result = checksums.get(fsFile.getId());
+		if (result != null && result.getLength() == length)
+			return result;
+		log.debug("Calculating checksums of the first {} bytes of {}",length,fsFile);
+		val newResult = Checksums.of(fsFile.getFile(),length);
+		checksums.put(fsFile.getId(),newResult);
+		return newResult;
 	}
 
-	private boolean validateChecksum(final String checksum, final String calculatedChecksum)
+	private OutputStream createOutputStream(final File file, final long position) throws IOException
 	{
-		return StringUtils.isEmpty(checksum) || checksum.equalsIgnoreCase(calculatedChecksum);
+		// write at the persisted offset instead of appending, the file may have been preallocated
+		return Channels.newOutputStream(FileChannel.open(file.toPath(),StandardOpenOption.WRITE).position(position));
 	}
 
-	private String calculateSha256Checksum(final File file) throws IOException
+	private void checkFreeSpace(final FSFile fsFile, final long length) throws InsufficientSpaceException
 	{
-		try (val is = new FileInputStream(file))
+		val usableSpace = fsFile.getFile().getUsableSpace();
+		if (length > 0 && usableSpace - length < minFreeSpace)
+			throw new InsufficientSpaceException("Not enough space for file " + fsFile.getPath() + ". " + length + " bytes needed, " + usableSpace + " bytes available");
+	}
+
+	private long transferTo(final FileChannel input, final OutputStream output, final long position, final long length) throws IOException
+	{
+		// transferTo uses sendfile/mmap for file and socket channels and a cached direct buffer for other channels
+		val target = output instanceof FileOutputStream ? ((FileOutputStream)output).getChannel() : Channels.newChannel(output);
+		var result = 0L;
+		while (result < length)
 		{
-			return DigestUtils.sha256Hex(is);
+			val count = input.transferTo(position + result,length - result,target);
+			if (count <= 0)
+				break;
+			result += count;
 		}
+		return result;
+	}
+
+	private Instant getLastModified(final File file)
+	{
+		return Instant.ofEpochMilli(file.lastModified());
+	}
+
+	private boolean validateChecksum(final String checksum, final String calculatedChecksum)
+	{
+		return StringUtils.isEmpty(checksum) || checksum.equalsIgnoreCase(calculatedChecksum);
 	}
 
-	private FSFile completeFile(@NonNull final FSFile fsFile) throws IOException
+	private FSFile completeFile(@NonNull final FSFile fsFile, @NonNull final Checksums fileChecksums) throws IOException
 	{
 		val file = fsFile.getFile();
 		if (!file.exists())// || !fsFile.isCompleted())
 			throw new FileNotFoundException(fsFile.getUrl().toString());
+		checksums.remove(fsFile.getId());
 		val result = fsFile
-				.withSha256Checksum(calculateSha256Checksum(file))
-				.withMd5Checksum(calculateMd5Checksum(file));
+				.withSha256Checksum(fileChecksums.getSha256Checksum())
+				.withMd5Checksum(fileChecksums.getMd5Checksum());
 		return result;
 	}
 }
@@ -15,14 +15,20 @@
  */
 package dev.luin.file.client.core.file;
 
+import java.util.concurrent.Executors;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import com.querydsl.sql.SQLQueryFactory;
 
 import lombok.AccessLevel;
+import lombok.val;
 import lombok.experimental.FieldDefaults;
 
 @Configuration
@@ -33,6 +39,14 @@ public class FileSystemConfig
 	String baseDir;
 	@Value("${file.filenameLength}")
 	int filenameLength;
+	@Value("${file.layout}")
+	FileLayout layout;
+	@Value("${file.minFreeSpace}")
+	long minFreeSpace;
+	@Value("${file.migrateLayoutOnStartup}")
+	boolean migrateLayoutOnStartup;
+	@Value("${file.reconcileOnStartup}")
+	boolean reconcileOnStartup;
 	@Autowired
 	SQLQueryFactory queryFactory;
 
@@ -43,9 +57,28 @@ public class FileSystemConfig
 				.fsFileDAO(fsFileDAO())
 				.baseDir(baseDir)
 				.filenameLength(filenameLength)
+				.layout(layout)
+				.minFreeSpace(minFreeSpace)
 				.build();
 	}
 
+	@EventListener(ContextRefreshedEvent.class)
+	public void reconcileFiles()
+	{
+		// the task handlers start claiming when the files have been reconciled, see FileSystem.whenReconciled
+		val executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("fileSystem-"));
+		executor.execute(() ->
+		{
+			if (reconcileOnStartup)
+				fileSystem().reconcile(1000);
+			else
+				fileSystem().skipReconcile();
+			if (migrateLayoutOnStartup)
+				fileSystem().migrateLayout(1000);
+		});
+		executor.shutdown();
+	}
+
 	@Bean
 	public FSFileDAO fsFileDAO()
 	{
@@ -42,8 +42,12 @@ public class QFile extends com.querydsl.sql.RelationalPathBase<QFile>
 
 	public final StringPath contentType = createString("contentType");
 
+	public final NumberPath<Long> fileLength = createNumber("fileLength",Long.class);
+
 	public final NumberPath<Long> id = createNumber("id",Long.class);
 
+	public final DateTimePath<java.time.Instant> lastModified = createDateTime("lastModified",java.time.Instant.class);
+
 	public final NumberPath<Long> length = createNumber("length",Long.class);
 
 	public final StringPath md5Checksum = createString("md5Checksum");
@@ -97,7 +101,9 @@ public class QFile extends com.querydsl.sql.RelationalPathBase<QFile>
 	public void addMetadata()
 	{
 		addMetadata(contentType,ColumnMetadata.named("content_type").withIndex(5).ofType(Types.VARCHAR).withSize(256).notNull());
+		addMetadata(fileLength,ColumnMetadata.named("file_length").withIndex(10).ofType(Types.BIGINT).withSize(64));
 		addMetadata(id,ColumnMetadata.named("id").withIndex(1).ofType(Types.INTEGER).withSize(32).notNull());
+		addMetadata(lastModified,ColumnMetadata.named("last_modified").withIndex(11).ofType(Types.TIMESTAMP).withSize(26));
 		addMetadata(length,ColumnMetadata.named("length").withIndex(9).ofType(Types.BIGINT).withSize(64));
 		addMetadata(md5Checksum,ColumnMetadata.named("md5_checksum").withIndex(6).ofType(Types.VARCHAR).withSize(32));
 		addMetadata(name,ColumnMetadata.named("name").withIndex(4).ofType(Types.VARCHAR).withSize(256));
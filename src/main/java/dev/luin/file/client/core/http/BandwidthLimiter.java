@@ -0,0 +1,115 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.http;
+
+import java.net.URL;
+import java.time.LocalTime;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import lombok.AccessLevel;
+import lombok.NonNull;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Limits the bandwidth of the transfers in bytes per second, globally, per remote host and per task. A limit of 0 means unlimited.
+ * The global limit can follow a time-of-day schedule, outside the scheduled periods the global rate applies. All limits can be changed at runtime through JMX.
+ */
+@ManagedResource(objectName = "dev.luin.file.client.core:type=BandwidthLimiter")
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class BandwidthLimiter
+{
+	volatile long globalRate;
+	volatile long hostRate;
+	volatile long taskRate;
+	volatile BandwidthSchedule schedule;
+	final TokenBucket globalBucket = new TokenBucket();
+	final ConcurrentHashMap<String,TokenBucket> hostBuckets = new ConcurrentHashMap<>();
+
+	public BandwidthLimiter(long globalRate, long hostRate, long taskRate, String schedule)
+	{
+		this.globalRate = globalRate;
+		this.hostRate = hostRate;
+		this.taskRate = taskRate;
+		this.schedule = BandwidthSchedule.of(schedule);
+	}
+
+	public Throttle createThrottle(@NonNull URL url)
+	{
+		return new Throttle(this,hostBuckets.computeIfAbsent(HostName.of(url),h -> new TokenBucket()));
+	}
+
+	long reserve(long bytes)
+	{
+		return globalBucket.reserve(bytes,getEffectiveGlobalRate());
+	}
+
+	@ManagedAttribute(description = "Global limit in bytes per second outside the scheduled periods, 0 is unlimited")
+	public long getGlobalRate()
+	{
+		return globalRate;
+	}
+
+	@ManagedAttribute
+	public void setGlobalRate(long globalRate)
+	{
+		this.globalRate = globalRate;
+	}
+
+	@ManagedAttribute(description = "Limit per remote host in bytes per second, 0 is unlimited")
+	public long getHostRate()
+	{
+		return hostRate;
+	}
+
+	@ManagedAttribute
+	public void setHostRate(long hostRate)
+	{
+		this.hostRate = hostRate;
+	}
+
+	@ManagedAttribute(description = "Limit per task in bytes per second, 0 is unlimited")
+	public long getTaskRate()
+	{
+		return taskRate;
+	}
+
+	@ManagedAttribute
+	public void setTaskRate(long taskRate)
+	{
+		this.taskRate = taskRate;
+	}
+
+	@ManagedAttribute(description = "Global limits per time of day, e.g. 08:00-18:00=1048576")
+	public String getSchedule()
+	{
+		return schedule.toString();
+	}
+
+	@ManagedAttribute
+	public void setSchedule(String schedule)
+	{
+		this.schedule = BandwidthSchedule.of(schedule);
+	}
+
+	@ManagedAttribute(description = "Global limit in bytes per second that applies now, 0 is unlimited")
+	public long getEffectiveGlobalRate()
+	{
+		return schedule.getRate(LocalTime.now()).getOrElse(globalRate);
+	}
+}
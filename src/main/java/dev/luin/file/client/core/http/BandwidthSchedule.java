@@ -0,0 +1,96 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.http;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+
+import org.apache.commons.lang3.StringUtils;
+
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Time-of-day bandwidth limits, written as a comma separated list of HH:mm-HH:mm=bytesPerSecond entries, e.g. 08:00-18:00=1048576.
+ * A period that ends before it starts runs past midnight. The first period that contains the time of day wins.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+class BandwidthSchedule
+{
+	@Value
+	private static class Period
+	{
+		@NonNull
+		LocalTime from;
+		@NonNull
+		LocalTime to;
+		long rate;
+
+		boolean contains(LocalTime time)
+		{
+			return !from.isAfter(to)
+					? !time.isBefore(from) && time.isBefore(to)
+					: !time.isBefore(from) || time.isBefore(to);
+		}
+
+		@Override
+		public String toString()
+		{
+			return from + "-" + to + "=" + rate;
+		}
+	}
+
+	@NonNull
+	Seq<Period> periods;
+
+	static BandwidthSchedule of(String schedule)
+	{
+		return new BandwidthSchedule(StringUtils.isBlank(schedule) ? List.empty() : List.of(schedule.split(",")).map(String::trim).map(BandwidthSchedule::parse));
+	}
+
+	private static Period parse(String period)
+	{
+		try
+		{
+			val rate = StringUtils.substringAfter(period,"=");
+			val times = StringUtils.substringBefore(period,"=");
+			return new Period(LocalTime.parse(StringUtils.substringBefore(times,"-").trim()),LocalTime.parse(StringUtils.substringAfter(times,"-").trim()),Long.parseLong(rate.trim()));
+		}
+		catch (DateTimeParseException | NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Invalid bandwidth period " + period,e);
+		}
+	}
+
+	Option<Long> getRate(@NonNull LocalTime time)
+	{
+		return periods.find(p -> p.contains(time)).map(Period::getRate);
+	}
+
+	@Override
+	public String toString()
+	{
+		return periods.mkString(",");
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+@ManagedResource(objectName = "dev.luin.file.client.core:type=CompressionStatistics")
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class CompressionStatistics
+{
+	AtomicLong downloadEncodedBytes = new AtomicLong();
+	AtomicLong downloadDecodedBytes = new AtomicLong();
+	AtomicLong uploadDecodedBytes = new AtomicLong();
+	AtomicLong uploadEncodedBytes = new AtomicLong();
+
+	public void recordDownload(long encodedBytes, long decodedBytes)
+	{
+		downloadEncodedBytes.addAndGet(encodedBytes);
+		downloadDecodedBytes.addAndGet(decodedBytes);
+	}
+
+	public void recordUpload(long decodedBytes, long encodedBytes)
+	{
+		uploadDecodedBytes.addAndGet(decodedBytes);
+		uploadEncodedBytes.addAndGet(encodedBytes);
+	}
+
+	@ManagedAttribute(description = "Number of bytes received in compressed downloads")
+	public long getDownloadEncodedBytes()
+	{
+		return downloadEncodedBytes.get();
+	}
+
+	@ManagedAttribute(description = "Number of bytes written to disk by compressed downloads")
+	public long getDownloadDecodedBytes()
+	{
+		return downloadDecodedBytes.get();
+	}
+
+	@ManagedAttribute(description = "Decoded bytes per received byte of the compressed downloads")
+	public double getDownloadCompressionRatio()
+	{
+		return getRatio(downloadDecodedBytes.get(),downloadEncodedBytes.get());
+	}
+
+	@ManagedAttribute(description = "Number of bytes of the files of compressed uploads")
+	public long getUploadDecodedBytes()
+	{
+		return uploadDecodedBytes.get();
+	}
+
+	@ManagedAttribute(description = "Number of bytes of compressed uploads")
+	public long getUploadEncodedBytes()
+	{
+		return uploadEncodedBytes.get();
+	}
+
+	@ManagedAttribute(description = "File bytes per uploaded byte of the compressed uploads")
+	public double getUploadCompressionRatio()
+	{
+		return getRatio(uploadDecodedBytes.get(),uploadEncodedBytes.get());
+	}
+
+	private static double getRatio(long decodedBytes, long encodedBytes)
+	{
+		return encodedBytes > 0 ? (double)decodedBytes / encodedBytes : 0;
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class ContentEncoding
+{
+	public static final String GZIP = "gzip";
+	public static final String ACCEPT_ENCODING = GZIP + ", deflate";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	public static boolean isEncoded(String contentEncoding)
+	{
+		return StringUtils.isNotBlank(contentEncoding) && !"identity".equalsIgnoreCase(contentEncoding.trim());
+	}
+
+	public static InputStream decode(String contentEncoding, @NonNull InputStream input) throws IOException
+	{
+		if (!isEncoded(contentEncoding))
+			return input;
+		switch (contentEncoding.trim().toLowerCase())
+		{
+			case GZIP:
+			case "x-gzip":
+				return new GZIPInputStream(input,BUFFER_SIZE);
+			case "deflate":
+				return new InflaterInputStream(input);
+			default:
+				throw new IOException("Content-Encoding " + contentEncoding + " is not supported");
+		}
+	}
+
+	public static OutputStream encode(@NonNull OutputStream output) throws IOException
+	{
+		return new GZIPOutputStream(output,BUFFER_SIZE);
+	}
+}
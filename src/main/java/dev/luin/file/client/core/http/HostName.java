@@ -0,0 +1,33 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.http;
+
+import java.net.URL;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.val;
+
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class HostName
+{
+	public static String of(@NonNull URL url)
+	{
+		val port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+		return url.getHost().toLowerCase() + ":" + port;
+	}
+}
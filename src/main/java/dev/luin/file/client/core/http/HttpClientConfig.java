@@ -0,0 +1,89 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.http;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import dev.luin.file.client.core.security.KeyStore;
+import dev.luin.file.client.core.security.TrustStore;
+import dev.luin.file.client.core.upload.SSLFactoryManager;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+@Configuration
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class HttpClientConfig
+{
+	@Autowired
+	@Qualifier("clientKeyStore")
+	KeyStore clientKeyStore;
+	@Autowired
+	TrustStore trustStore;
+	@Value("${https.enabledProtocols}")
+	String[] enabledProtocols;
+	@Value("${https.enabledCipherSuites}")
+	String[] enabledCipherSuites;
+	@Value("${https.verifyHostnames}")
+	boolean verifyHostnames;
+	@Value("${https.sessionCacheSize}")
+	int sessionCacheSize;
+	@Value("${https.sessionTimeout}")
+	int sessionTimeout;
+	@Value("${http.bandwidth.globalRate}")
+	long globalRate;
+	@Value("${http.bandwidth.hostRate}")
+	long hostRate;
+	@Value("${http.bandwidth.taskRate}")
+	long taskRate;
+	@Value("${http.bandwidth.schedule}")
+	String bandwidthSchedule;
+
+	@Bean
+	public HttpConnectionFactory httpConnectionFactory() throws Exception
+	{
+		return new HttpConnectionFactory(sslFactoryManager());
+	}
+
+	@Bean
+	public BandwidthLimiter bandwidthLimiter()
+	{
+		return new BandwidthLimiter(globalRate,hostRate,taskRate,bandwidthSchedule);
+	}
+
+	@Bean
+	public CompressionStatistics compressionStatistics()
+	{
+		return new CompressionStatistics();
+	}
+
+	@Bean
+	public SSLFactoryManager sslFactoryManager() throws Exception
+	{
+		return SSLFactoryManager.builder()
+				.keyStore(clientKeyStore)
+				.trustStore(trustStore)
+				.enabledProtocols(enabledProtocols)
+				.enabledCipherSuites(enabledCipherSuites)
+				.verifyHostnames(verifyHostnames)
+				.sessionCacheSize(sessionCacheSize)
+				.sessionTimeout(sessionTimeout)
+				.build();
+	}
+}
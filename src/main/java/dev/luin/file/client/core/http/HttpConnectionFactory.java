@@ -0,0 +1,94 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import dev.luin.file.client.core.upload.SSLFactoryManager;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Creates the connections of the downloads and uploads with a shared TLS socket factory, so TLS sessions are resumed across connections.
+ * <p>
+ * The connections are pooled by the keep-alive cache of the JDK, which this factory cannot control. It is configured JVM-wide by the embedding
+ * application with the system properties http.keepAlive and http.maxConnections (the number of idle connections kept per destination,
+ * default 5). Idle connections are evicted by the JDK after the Keep-Alive timeout of the server, or after 5 seconds. A connection is only
+ * returned to the cache when its response has been read completely and the stream is closed. The number of concurrent connections per host is
+ * limited by {@link dev.luin.file.client.core.task.HostGuard}, not by this factory.
+ */
+@ManagedResource(objectName = "dev.luin.file.client.core:type=HttpConnectionFactory")
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@AllArgsConstructor
+public class HttpConnectionFactory
+{
+	@NonNull
+	SSLFactoryManager sslFactoryManager;
+	AtomicLong requests = new AtomicLong();
+
+	public HttpURLConnection createConnection(@NonNull final URL url) throws IOException
+	{
+		val result = (HttpURLConnection)url.openConnection();
+		prepareConnection(result);
+		return result;
+	}
+
+	public void prepareConnection(@NonNull final HttpURLConnection connection)
+	{
+		requests.incrementAndGet();
+		if (connection instanceof HttpsURLConnection)
+		{
+			// a single socket factory lets the JDK reuse both the kept-alive connections and the TLS sessions
+			val secureConnection = (HttpsURLConnection)connection;
+			secureConnection.setSSLSocketFactory(sslFactoryManager.getSslSocketFactory());
+		}
+	}
+
+	@ManagedAttribute(description = "Number of HTTP requests")
+	public long getRequests()
+	{
+		return requests.get();
+	}
+
+	@ManagedAttribute(description = "Number of TLS sockets opened")
+	public long getSockets()
+	{
+		return sslFactoryManager.getSockets();
+	}
+
+	@ManagedAttribute(description = "Number of full TLS handshakes")
+	public long getFullHandshakes()
+	{
+		return sslFactoryManager.getFullHandshakes();
+	}
+
+	@ManagedAttribute(description = "Number of TLS handshakes that resumed a cached session")
+	public long getResumedHandshakes()
+	{
+		return sslFactoryManager.getResumedHandshakes();
+	}
+}
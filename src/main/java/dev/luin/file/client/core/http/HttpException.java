@@ -0,0 +1,69 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+
+@Getter
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class HttpException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+	int statusCode;
+	Duration retryAfter;
+
+	public HttpException(int statusCode, Duration retryAfter)
+	{
+		super("Unexpected response: " + statusCode);
+		this.statusCode = statusCode;
+		this.retryAfter = retryAfter;
+	}
+
+	public static HttpException of(@NonNull final HttpURLConnection connection) throws IOException
+	{
+		return new HttpException(connection.getResponseCode(),parseRetryAfter(connection.getHeaderField("Retry-After")).getOrNull());
+	}
+
+	public static Option<Duration> parseRetryAfter(final String retryAfter)
+	{
+		if (retryAfter == null || retryAfter.trim().isEmpty())
+			return Option.none();
+		val value = retryAfter.trim();
+		// either delay-seconds or an HTTP-date
+		return Try.of(() -> Duration.ofSeconds(Long.parseLong(value)))
+				.orElse(() -> Try.of(() -> Duration.between(Instant.now(),ZonedDateTime.parse(value,DateTimeFormatter.RFC_1123_DATE_TIME).toInstant())))
+				.map(d -> d.isNegative() ? Duration.ZERO : d)
+				.toOption();
+	}
+
+	public Option<Duration> getRetryAfter()
+	{
+		return Option.of(retryAfter);
+	}
+}
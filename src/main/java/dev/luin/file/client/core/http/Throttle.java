@@ -0,0 +1,61 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.http;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Bandwidth limit of a single task. All streams of the task share the task limit, the host limit and the global limit of the {@link BandwidthLimiter}.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public class Throttle
+{
+	@NonNull
+	BandwidthLimiter limiter;
+	@NonNull
+	TokenBucket hostBucket;
+	TokenBucket taskBucket = new TokenBucket();
+
+	public InputStream throttle(@NonNull InputStream in)
+	{
+		return new ThrottledInputStream(in,this);
+	}
+
+	void acquire(long bytes) throws InterruptedIOException
+	{
+		val wait = Math.max(limiter.reserve(bytes),
+				Math.max(hostBucket.reserve(bytes,limiter.getHostRate()),taskBucket.reserve(bytes,limiter.getTaskRate())));
+		if (wait > 0)
+			try
+			{
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while throttling");
+			}
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import lombok.NonNull;
+import lombok.val;
+
+class ThrottledInputStream extends FilterInputStream
+{
+	// small reads keep the waits short and the throughput smooth
+	private static final int MAX_READ_SIZE = 64 * 1024;
+	@NonNull
+	private final Throttle throttle;
+
+	ThrottledInputStream(@NonNull InputStream in, @NonNull Throttle throttle)
+	{
+		super(in);
+		this.throttle = throttle;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		val result = super.read();
+		if (result != -1)
+			throttle.acquire(1);
+		return result;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		val result = super.read(b,off,Math.min(len,MAX_READ_SIZE));
+		if (result > 0)
+			throttle.acquire(result);
+		return result;
+	}
+}
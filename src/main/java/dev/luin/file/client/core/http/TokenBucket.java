@@ -0,0 +1,48 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.http;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.AccessLevel;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Token bucket that holds at most one second of tokens. The rate is passed on every reservation, so it can be changed at runtime.
+ * A reservation always succeeds and may leave the bucket in debt, the caller has to wait the returned time before it continues.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+class TokenBucket
+{
+	double tokens;
+	long lastRefill = System.nanoTime();
+
+	synchronized long reserve(long bytes, long rate)
+	{
+		val now = System.nanoTime();
+		if (rate <= 0)
+		{
+			tokens = 0;
+			lastRefill = now;
+			return 0;
+		}
+		tokens = Math.min(rate,tokens + (double)(now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+		lastRefill = now;
+		tokens -= bytes;
+		return tokens >= 0 ? 0 : (long)(-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+	}
+}
@@ -28,10 +28,15 @@ import javax.xml.ws.soap.MTOM;
 import dev.luin.file.client.core.download.DownloadStatus;
 import dev.luin.file.client.core.jaxb.InstantAdapter;
 import dev.luin.file.client.core.service.model.DownloadTask;
+import dev.luin.file.client.core.service.model.DownloadTaskPage;
 import dev.luin.file.client.core.service.model.File;
 import dev.luin.file.client.core.service.model.FileInfo;
+import dev.luin.file.client.core.service.model.FileInfoPage;
+import dev.luin.file.client.core.service.model.HostStatus;
 import dev.luin.file.client.core.service.model.NewFile;
+import dev.luin.file.client.core.service.model.RelayTask;
 import dev.luin.file.client.core.service.model.UploadTask;
+import dev.luin.file.client.core.service.model.UploadTaskPage;
 import dev.luin.file.client.core.upload.UploadStatus;
 
 @MTOM(enabled = true)
@@ -47,6 +52,13 @@ public interface FileService
 	@WebResult(name = "uploadTask")
 	List<UploadTask> getUploadTasks(@WebParam(name = "status") List<UploadStatus> status) throws ServiceException;
 
+	@WebResult(name = "uploadTaskPage")
+	UploadTaskPage getUploadTasksPage(@WebParam(name = "status") List<UploadStatus> status,
+			@WebParam(name = "from") @XmlElement @XmlJavaTypeAdapter(InstantAdapter.class) Instant from,
+			@WebParam(name = "to") @XmlElement @XmlJavaTypeAdapter(InstantAdapter.class) Instant to,
+			@WebParam(name = "continuationToken") @XmlElement String continuationToken,
+			@WebParam(name = "pageSize") @XmlElement Integer pageSize) throws ServiceException;
+
 	void deleteUploadTask(@WebParam(name = "fileId") @XmlElement(required = true) Long fileId) throws ServiceException;
 
 	@WebResult(name = "file")
@@ -60,8 +72,21 @@ public interface FileService
 	@WebResult(name = "downloadTask")
 	List<DownloadTask> getDownloadTasks(@WebParam(name = "status") List<DownloadStatus> status) throws ServiceException;
 
+	@WebResult(name = "downloadTaskPage")
+	DownloadTaskPage getDownloadTasksPage(@WebParam(name = "status") List<DownloadStatus> status,
+			@WebParam(name = "from") @XmlElement @XmlJavaTypeAdapter(InstantAdapter.class) Instant from,
+			@WebParam(name = "to") @XmlElement @XmlJavaTypeAdapter(InstantAdapter.class) Instant to,
+			@WebParam(name = "continuationToken") @XmlElement String continuationToken,
+			@WebParam(name = "pageSize") @XmlElement Integer pageSize) throws ServiceException;
+
 	void deleteDownloadTask(@WebParam(name = "fileId") @XmlElement(required = true) Long fileId) throws ServiceException;
 
+	@WebResult(name = "relayTask")
+	RelayTask relayFile(@WebParam(name = "url") @XmlElement(required = true) String url,
+			@WebParam(name = "creationUrl") @XmlElement(required = true) String creationUrl,
+			@WebParam(name = "startDate") @XmlElement @XmlJavaTypeAdapter(InstantAdapter.class) Instant startDate,
+			@WebParam(name = "endDate") @XmlElement @XmlJavaTypeAdapter(InstantAdapter.class) Instant endDate) throws ServiceException;
+
 	@WebResult(name = "file")
 	File getFile(@WebParam(name = "id") @XmlElement(required = true) Long id) throws ServiceException;
 
@@ -70,4 +95,16 @@ public interface FileService
 
 	@WebResult(name = "fileInfo")
 	List<FileInfo> getFiles() throws ServiceException;
+
+	@WebResult(name = "fileInfoPage")
+	FileInfoPage getFilesPage(@WebParam(name = "contentType") @XmlElement String contentType,
+			@WebParam(name = "from") @XmlElement @XmlJavaTypeAdapter(InstantAdapter.class) Instant from,
+			@WebParam(name = "to") @XmlElement @XmlJavaTypeAdapter(InstantAdapter.class) Instant to,
+			@WebParam(name = "continuationToken") @XmlElement String continuationToken,
+			@WebParam(name = "pageSize") @XmlElement Integer pageSize) throws ServiceException;
+
+	@WebResult(name = "hostStatus")
+	List<HostStatus> getHostStatuses() throws ServiceException;
+
+	void resetCircuitBreaker(@WebParam(name = "host") @XmlElement(required = true) String host) throws ServiceException;
 }
@@ -17,6 +17,7 @@ package dev.luin.file.client.core.service;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Instant;
 import java.util.List;
 
@@ -24,19 +25,28 @@ import javax.activation.DataHandler;
 
 import org.springframework.transaction.annotation.Transactional;
 
+import dev.luin.file.client.core.download.DownloadCoalescer;
 import dev.luin.file.client.core.download.DownloadStatus;
 import dev.luin.file.client.core.download.DownloadTaskManager;
 import dev.luin.file.client.core.file.FSFile;
 import dev.luin.file.client.core.file.FileSystem;
 import dev.luin.file.client.core.service.model.DownloadTask;
+import dev.luin.file.client.core.service.model.DownloadTaskPage;
 import dev.luin.file.client.core.service.model.DownloadTaskMapper;
 import dev.luin.file.client.core.service.model.File;
 import dev.luin.file.client.core.service.model.FileInfo;
+import dev.luin.file.client.core.service.model.FileInfoPage;
 import dev.luin.file.client.core.service.model.FileInfoMapper;
 import dev.luin.file.client.core.service.model.FileMapper;
+import dev.luin.file.client.core.service.model.HostStatus;
+import dev.luin.file.client.core.service.model.HostStatusMapper;
 import dev.luin.file.client.core.service.model.NewFile;
+import dev.luin.file.client.core.service.model.RelayTask;
 import dev.luin.file.client.core.service.model.UploadTask;
+import dev.luin.file.client.core.service.model.UploadTaskPage;
 import dev.luin.file.client.core.service.model.UploadTaskMapper;
+import dev.luin.file.client.core.task.HostGuard;
+import dev.luin.file.client.core.transaction.TransactionTemplate;
 import dev.luin.file.client.core.upload.UploadStatus;
 import dev.luin.file.client.core.upload.UploadTaskManager;
 import io.vavr.control.Try;
@@ -58,6 +68,14 @@ class FileServiceImpl implements FileService
 	UploadTaskManager uploadTaskManager;
 	@NonNull
 	DownloadTaskManager downloadTaskManager;
+	@NonNull
+	DownloadCoalescer downloadCoalescer;
+	@NonNull
+	HostGuard hostGuard;
+	@NonNull
+	TransactionTemplate transactionTemplate;
+	int defaultPageSize;
+	int maxPageSize;
 
 	@Override
 	@Transactional("dataSourceTransactionManager")
@@ -106,6 +124,22 @@ class FileServiceImpl implements FileService
 		.getOrElseThrow(ServiceException.defaultExceptionProvider);
 	}
 
+	@Override
+	public UploadTaskPage getUploadTasksPage(List<UploadStatus> status, Instant from, Instant to, String continuationToken, Integer pageSize) throws ServiceException
+	{
+		log.debug("getUploadTasksPage {} {}",status,continuationToken);
+		return Try.of(() -> 
+		{
+			val size = getPageSize(pageSize);
+			val tasks = uploadTaskManager.getTasks(status != null ? io.vavr.collection.List.ofAll(status) : io.vavr.collection.List.empty(),parseContinuationToken(continuationToken),from,to,size + 1);
+			val page = tasks.take(size);
+			return new UploadTaskPage(
+					page.map(t -> UploadTaskMapper.INSTANCE.toUploadTask(t)).asJava(),
+					tasks.length() > size ? String.valueOf(page.last().getFileId()) : null);
+		})
+		.getOrElseThrow(ServiceException.defaultExceptionProvider);
+	}
+
 	@Override
 	@Transactional("dataSourceTransactionManager")
 	public void deleteUploadTask(Long fileId) throws ServiceException
@@ -130,22 +164,27 @@ class FileServiceImpl implements FileService
 	}
 
 	@Override
-	@Transactional("dataSourceTransactionManager")
 	public DownloadTask downloadFile(String url, Instant startDate, Instant endDate) throws ServiceException
 	{
 		log.debug("downloadFile {}",url);
 		return Try.of(() -> 
 		{
+			// not transactional, the coalescer may validate a succeeded download with the server
+			val coalesced = downloadCoalescer.attach(url,startDate,endDate);
+			if (coalesced.isDefined())
+			{
+				log.info("Attached to downloadTask {}",coalesced.get());
+				return DownloadTaskMapper.INSTANCE.toDownloadTask(coalesced.get());
+			}
 			try
 			{
-				val fsFile = fs.createEmptyFile(url);
-				val task = downloadTaskManager.createTask(fsFile.getId(),url,startDate,endDate);
+				val task = transactionTemplate.executeTransactionWithResult(() -> createDownloadTask(url,startDate,endDate));
 				log.info("Created downloadTask {}",task);
 				return DownloadTaskMapper.INSTANCE.toDownloadTask(task);
 			}
-			catch (IOException e)
+			catch (UncheckedIOException e)
 			{
-				throw new ServiceException(e);
+				throw new ServiceException(e.getCause());
 			}
 		})
 		.getOrElseThrow(ServiceException.defaultExceptionProvider);
@@ -176,6 +215,22 @@ class FileServiceImpl implements FileService
 		.getOrElseThrow(ServiceException.defaultExceptionProvider);
 	}
 
+	@Override
+	public DownloadTaskPage getDownloadTasksPage(List<DownloadStatus> status, Instant from, Instant to, String continuationToken, Integer pageSize) throws ServiceException
+	{
+		log.debug("getDownloadTasksPage {} {}",status,continuationToken);
+		return Try.of(() -> 
+		{
+			val size = getPageSize(pageSize);
+			val tasks = downloadTaskManager.getTasks(status != null ? io.vavr.collection.List.ofAll(status) : io.vavr.collection.List.empty(),parseContinuationToken(continuationToken),from,to,size + 1);
+			val page = tasks.take(size);
+			return new DownloadTaskPage(
+					page.map(t -> DownloadTaskMapper.INSTANCE.toDownloadTask(t)).asJava(),
+					tasks.length() > size ? String.valueOf(page.last().getFileId()) : null);
+		})
+		.getOrElseThrow(ServiceException.defaultExceptionProvider);
+	}
+
 	@Override
 	@Transactional("dataSourceTransactionManager")
 	public void deleteDownloadTask(Long fileId) throws ServiceException
@@ -186,6 +241,12 @@ class FileServiceImpl implements FileService
 			try
 			{
 				val fsFile = fs.findFile(fileId).getOrElseThrow(() -> new FileNotFoundException("File " + fileId + " not found"));
+				// the file is shared by coalesced downloads and is deleted with the last reference
+				if (downloadTaskManager.detachTask(fileId))
+				{
+					log.info("Detached from downloadTask {}",fileId);
+					return null;
+				}
 				fs.deleteFile(fsFile,true);
 				downloadTaskManager.deleteTask(fileId);
 				log.info("Deleted downloadTask {}",fileId);
@@ -199,6 +260,29 @@ class FileServiceImpl implements FileService
 		.getOrElseThrow(ServiceException.defaultExceptionProvider);
 	}
 
+	@Override
+	@Transactional("dataSourceTransactionManager")
+	public RelayTask relayFile(String url, String creationUrl, Instant startDate, Instant endDate) throws ServiceException
+	{
+		log.debug("relayFile {} to {}",url,creationUrl);
+		return Try.of(() -> 
+		{
+			try
+			{
+				val fsFile = fs.createEmptyFile(url);
+				val downloadTask = downloadTaskManager.createTask(fsFile.getId(),url,startDate,endDate);
+				val uploadTask = uploadTaskManager.createTask(fsFile.getId(),creationUrl,startDate);
+				log.info("Created relay of downloadTask {} to uploadTask {}",downloadTask,uploadTask);
+				return new RelayTask(DownloadTaskMapper.INSTANCE.toDownloadTask(downloadTask),UploadTaskMapper.INSTANCE.toUploadTask(uploadTask));
+			}
+			catch (IOException e)
+			{
+				throw new ServiceException(e);
+			}
+		})
+		.getOrElseThrow(ServiceException.defaultExceptionProvider);
+	}
+
 	@Override
 	public File getFile(Long id) throws ServiceException
 	{
@@ -241,6 +325,78 @@ class FileServiceImpl implements FileService
 		.getOrElseThrow(ServiceException.defaultExceptionProvider);
 	}
 
+	@Override
+	public FileInfoPage getFilesPage(String contentType, Instant from, Instant to, String continuationToken, Integer pageSize) throws ServiceException
+	{
+		log.debug("getFilesPage {}",continuationToken);
+		return Try.of(() -> 
+		{
+			val size = getPageSize(pageSize);
+			val fsFiles = fs.getFiles(parseContinuationToken(continuationToken),contentType,from,to,size + 1);
+			val page = fsFiles.take(size);
+			return new FileInfoPage(
+					page.map(f -> FileInfoMapper.INSTANCE.toFileInfo(f)).asJava(),
+					fsFiles.length() > size ? page.last().getId().toString() : null);
+		})
+		.getOrElseThrow(ServiceException.defaultExceptionProvider);
+	}
+
+	@Override
+	public List<HostStatus> getHostStatuses() throws ServiceException
+	{
+		log.debug("getHostStatuses");
+		return Try.of(() -> 
+		{
+			return hostGuard.getHosts()
+					.map(h -> HostStatusMapper.INSTANCE.toHostStatus(h))
+					.asJava();
+		})
+		.getOrElseThrow(ServiceException.defaultExceptionProvider);
+	}
+
+	@Override
+	public void resetCircuitBreaker(String host) throws ServiceException
+	{
+		log.debug("resetCircuitBreaker {}",host);
+		Try.of(() -> 
+		{
+			if (!hostGuard.reset(host))
+				throw new ServiceException("Host " + host + " not found!");
+			log.info("Reset circuitBreaker of host {}",host);
+			return null;
+		})
+		.getOrElseThrow(ServiceException.defaultExceptionProvider);
+	}
+
+	private int getPageSize(final Integer pageSize)
+	{
+		if (pageSize == null)
+			return defaultPageSize;
+		if (pageSize < 1 || pageSize > maxPageSize)
+			throw new ServiceException("pageSize must be between 1 and " + maxPageSize);
+		return pageSize;
+	}
+
+	private Long parseContinuationToken(final String continuationToken)
+	{
+		return Try.of(() -> continuationToken == null ? null : Long.valueOf(continuationToken))
+				.getOrElseThrow(() -> new ServiceException("Invalid continuationToken " + continuationToken));
+	}
+
+	private dev.luin.file.client.core.download.DownloadTask createDownloadTask(final String url, final Instant startDate, final Instant endDate)
+	{
+		try
+		{
+			val fsFile = fs.createEmptyFile(url);
+			return downloadTaskManager.createTask(fsFile.getId(),url,startDate,endDate);
+		}
+		catch (IOException e)
+		{
+			// rolls back the transaction
+			throw new UncheckedIOException(e);
+		}
+	}
+
 	private FSFile createFile(final File file) throws IOException
 	{
 		return fs.createFile(file.getContent().getName(),file.getContent().getContentType(),file.getSha256Checksum(),file.getContent().getInputStream());
@@ -16,11 +16,16 @@
 package dev.luin.file.client.core.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import dev.luin.file.client.core.download.DownloadCoalescer;
 import dev.luin.file.client.core.download.DownloadTaskManager;
 import dev.luin.file.client.core.file.FileSystem;
+import dev.luin.file.client.core.task.HostGuard;
+import dev.luin.file.client.core.transaction.TransactionTemplate;
 import dev.luin.file.client.core.upload.UploadTaskManager;
 import lombok.AccessLevel;
 import lombok.experimental.FieldDefaults;
@@ -35,10 +40,21 @@ public class ServiceConfig
 	UploadTaskManager uploadTaskManager;
 	@Autowired
 	DownloadTaskManager downloadTaskManager;
+	@Autowired
+	DownloadCoalescer downloadCoalescer;
+	@Autowired
+	HostGuard hostGuard;
+	@Autowired
+	@Qualifier("dataSourceTransactionTemplate")
+	TransactionTemplate transactionTemplate;
+	@Value("${fileService.defaultPageSize}")
+	int defaultPageSize;
+	@Value("${fileService.maxPageSize}")
+	int maxPageSize;
 
 	@Bean
 	public FileService fileService()
 	{
-		return new FileServiceImpl(fs,uploadTaskManager,downloadTaskManager);
+		return new FileServiceImpl(fs,uploadTaskManager,downloadTaskManager,downloadCoalescer,hostGuard,transactionTemplate,defaultPageSize,maxPageSize);
 	}
 }
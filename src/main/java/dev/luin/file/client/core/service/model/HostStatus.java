@@ -0,0 +1,58 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.service.model;
+
+import java.time.Instant;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlSchemaType;
+import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
+
+import dev.luin.file.client.core.jaxb.InstantAdapter;
+import dev.luin.file.client.core.task.CircuitBreaker;
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.NonNull;
+import lombok.experimental.FieldDefaults;
+
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.FIELD)
+@Data
+@FieldDefaults(level = AccessLevel.PRIVATE)
+@NoArgsConstructor
+public class HostStatus
+{
+	@XmlElement(required = true)
+	@NonNull
+	String host;
+	@XmlElement(required = true)
+	@NonNull
+	CircuitBreaker.State state;
+	@XmlElement(required = true)
+	int failures;
+	@XmlElement
+	@XmlJavaTypeAdapter(InstantAdapter.class)
+	@XmlSchemaType(name = "dateTime")
+	Instant openUntil;
+	@XmlElement(required = true)
+	int running;
+	@XmlElement(required = true)
+	int connections;
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import lombok.AccessLevel;
+import lombok.NonNull;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Opens after a number of consecutive failures and rejects all requests until the open duration has passed.
+ * Then a limited number of probes is let through half-open: a successful probe closes the circuit again, a failed probe opens it for another period.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class CircuitBreaker
+{
+	public enum State
+	{
+		CLOSED, OPEN, HALF_OPEN;
+	}
+
+	final int failureThreshold;
+	@NonNull
+	final Duration openDuration;
+	final int halfOpenProbes;
+	State state = State.CLOSED;
+	int failures;
+	int probes;
+	Instant openUntil;
+
+	public CircuitBreaker(int failureThreshold, @NonNull Duration openDuration, int halfOpenProbes)
+	{
+		this.failureThreshold = Math.max(1,failureThreshold);
+		this.openDuration = openDuration;
+		this.halfOpenProbes = Math.max(1,halfOpenProbes);
+	}
+
+	public synchronized boolean tryAcquire(@NonNull Instant now)
+	{
+		if (state == State.OPEN)
+		{
+			if (now.isBefore(openUntil))
+				return false;
+			state = State.HALF_OPEN;
+			probes = 0;
+		}
+		if (state == State.HALF_OPEN)
+		{
+			if (probes >= halfOpenProbes)
+				return false;
+			probes++;
+		}
+		return true;
+	}
+
+	public synchronized void release()
+	{
+		// a probe that finished without an outcome makes room for the next one
+		if (state == State.HALF_OPEN && probes > 0)
+			probes--;
+	}
+
+	public synchronized void onSuccess()
+	{
+		state = State.CLOSED;
+		failures = 0;
+		openUntil = null;
+	}
+
+	public synchronized void onFailure(@NonNull Instant now)
+	{
+		failures++;
+		if (state == State.HALF_OPEN || failures >= failureThreshold)
+		{
+			state = State.OPEN;
+			openUntil = now.plus(openDuration);
+		}
+	}
+
+	public synchronized void reset()
+	{
+		onSuccess();
+	}
+
+	public synchronized State getState()
+	{
+		return state;
+	}
+
+	public synchronized int getFailures()
+	{
+		return failures;
+	}
+
+	public synchronized Instant getOpenUntil()
+	{
+		return openUntil;
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import java.time.Duration;
+
+import dev.luin.file.client.core.http.HttpException;
+import io.tus.java.client.ProtocolException;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import io.vavr.collection.Set;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Decides whether a failed task is worth retrying. HTTP responses are retried when their status code is listed as retryable, other error responses are permanent.
+ * Exceptions of a permanent type are never retried, all other exceptions are assumed to be transient.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@AllArgsConstructor
+public class ErrorClassifier
+{
+	@NonNull
+	Set<Integer> retryableStatusCodes;
+	@NonNull
+	Seq<Class<?>> permanentExceptions;
+
+	public boolean isRetryable(Throwable cause)
+	{
+		return getCauses(cause).forAll(c -> !isPermanentException(c))
+				&& getStatusCode(cause).map(s -> s < 400 || retryableStatusCodes.contains(s)).getOrElse(true);
+	}
+
+	public Option<Integer> getStatusCode(Throwable cause)
+	{
+		return getCauses(cause).map(this::getStatus).find(Option::isDefined).flatMap(s -> s);
+	}
+
+	public Option<Duration> getRetryAfter(Throwable cause)
+	{
+		return getCauses(cause).map(this::getRetryAfterOf).find(Option::isDefined).flatMap(d -> d);
+	}
+
+	private boolean isPermanentException(Throwable cause)
+	{
+		return permanentExceptions.exists(c -> c.isInstance(cause));
+	}
+
+	private Option<Integer> getStatus(Throwable cause)
+	{
+		if (cause instanceof HttpException)
+			return Option.some(((HttpException)cause).getStatusCode());
+		if (cause instanceof ProtocolException && ((ProtocolException)cause).getCausingConnection() != null)
+			return Try.of(() -> ((ProtocolException)cause).getCausingConnection().getResponseCode()).toOption();
+		return Option.none();
+	}
+
+	private Option<Duration> getRetryAfterOf(Throwable cause)
+	{
+		if (cause instanceof HttpException)
+			return ((HttpException)cause).getRetryAfter();
+		if (cause instanceof ProtocolException && ((ProtocolException)cause).getCausingConnection() != null)
+			return HttpException.parseRetryAfter(((ProtocolException)cause).getCausingConnection().getHeaderField("Retry-After"));
+		return Option.none();
+	}
+
+	private List<Throwable> getCauses(Throwable cause)
+	{
+		return cause == null ? List.empty() : List.of(cause).appendAll(cause.getCause() != cause ? getCauses(cause.getCause()) : List.empty());
+	}
+}
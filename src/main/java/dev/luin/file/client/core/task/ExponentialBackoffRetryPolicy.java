@@ -0,0 +1,68 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.vavr.control.Option;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Exponential backoff with full jitter: the delay is drawn uniformly between 0 and min(maxDelay, baseDelay * 2^(retries - 1)), so tasks that failed together do not retry together.
+ * A Retry-After returned by the server takes precedence, but it is capped by maxDelay, so a server cannot park a task beyond the delays that are configured.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@AllArgsConstructor
+@Builder
+public class ExponentialBackoffRetryPolicy implements RetryPolicy
+{
+	int maxAttempts;
+	@NonNull
+	Duration baseDelay;
+	@NonNull
+	Duration maxDelay;
+	@NonNull
+	ErrorClassifier errorClassifier;
+
+	@Override
+	public boolean isRetryable(Throwable cause)
+	{
+		return cause == null || errorClassifier.isRetryable(cause);
+	}
+
+	@Override
+	public Option<Duration> getDelay(int retries, Throwable cause)
+	{
+		if (retries > maxAttempts || !isRetryable(cause))
+			return Option.none();
+		return errorClassifier.getRetryAfter(cause)
+				.map(d -> d.compareTo(maxDelay) > 0 ? maxDelay : d)
+				.orElse(() -> Option.some(getBackoff(retries)));
+	}
+
+	private Duration getBackoff(int retries)
+	{
+		val exponent = Math.min(Math.max(retries - 1,0),30);
+		val cap = Math.min(maxDelay.toMillis(),baseDelay.toMillis() * (1L << exponent));
+		return Duration.ofMillis(ThreadLocalRandom.current().nextLong(Math.max(cap,0) + 1));
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import dev.luin.file.client.core.http.HostName;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Keeps track of the remote hosts (the authority of the task URL) that tasks are running against. It caps the number of concurrent tasks and
+ * connections per host and keeps a {@link CircuitBreaker} per host, so a slow or failing host cannot occupy all workers of the task handlers.
+ * A running task holds one connection, segments and parts run on the extra connections it acquires.
+ */
+@ManagedResource(objectName = "dev.luin.file.client.core:type=HostGuard")
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@AllArgsConstructor
+public class HostGuard
+{
+	@FieldDefaults(level = AccessLevel.PRIVATE)
+	private static class Host
+	{
+		final CircuitBreaker circuitBreaker;
+		int running;
+		int connections;
+
+		Host(CircuitBreaker circuitBreaker)
+		{
+			this.circuitBreaker = circuitBreaker;
+		}
+	}
+
+	int maxConcurrency;
+	int maxConnections;
+	int failureThreshold;
+	@NonNull
+	Duration openDuration;
+	int halfOpenProbes;
+	@NonNull
+	ErrorClassifier errorClassifier;
+	ConcurrentHashMap<String,Host> hosts = new ConcurrentHashMap<>();
+
+	public boolean tryAcquire(@NonNull URL url)
+	{
+		val host = getHost(url);
+		synchronized (host)
+		{
+			if (maxConcurrency > 0 && host.running >= maxConcurrency)
+				return false;
+			if (maxConnections > 0 && host.connections >= maxConnections)
+				return false;
+			if (!host.circuitBreaker.tryAcquire(Instant.now()))
+				return false;
+			host.running++;
+			host.connections++;
+			return true;
+		}
+	}
+
+	public void release(@NonNull URL url)
+	{
+		val host = getHost(url);
+		synchronized (host)
+		{
+			host.running = Math.max(0,host.running - 1);
+			host.connections = Math.max(0,host.connections - 1);
+			host.circuitBreaker.release();
+		}
+	}
+
+	/**
+	 * Acquires up to count extra connections to the host of the URL for a running task and returns the number acquired, which can be 0.
+	 */
+	public int acquireConnections(@NonNull URL url, int count)
+	{
+		val host = getHost(url);
+		synchronized (host)
+		{
+			val result = Math.max(0,maxConnections > 0 ? Math.min(count,maxConnections - host.connections) : count);
+			host.connections += result;
+			return result;
+		}
+	}
+
+	public void releaseConnections(@NonNull URL url, int count)
+	{
+		val host = getHost(url);
+		synchronized (host)
+		{
+			host.connections = Math.max(0,host.connections - count);
+		}
+	}
+
+	public void onSuccess(@NonNull URL url)
+	{
+		getHost(url).circuitBreaker.onSuccess();
+	}
+
+	public void onFailure(@NonNull URL url, @NonNull Throwable cause)
+	{
+		// permanent errors, like a 404 or a checksum mismatch, are answers of a healthy host
+		if (errorClassifier.isRetryable(cause))
+			getHost(url).circuitBreaker.onFailure(Instant.now());
+		else
+			onSuccess(url);
+	}
+
+	/**
+	 * Returns the time from which a task for the given URL can be started again: the end of the open period when the circuit of the host is open, now otherwise.
+	 */
+	public Instant getAvailableTime(@NonNull URL url)
+	{
+		val host = getHost(url);
+		val now = Instant.now();
+		val openUntil = host.circuitBreaker.getState() == CircuitBreaker.State.OPEN ? host.circuitBreaker.getOpenUntil() : null;
+		return openUntil != null && openUntil.isAfter(now) ? openUntil : now;
+	}
+
+	public Seq<HostStatus> getHosts()
+	{
+		return List.ofAll(hosts.entrySet())
+				.sortBy(e -> e.getKey())
+				.map(e -> getStatus(e.getKey(),e.getValue()));
+	}
+
+	@ManagedAttribute(description = "Maximum number of concurrent connections per host, 0 is unlimited")
+	public int getMaxConnectionsPerHost()
+	{
+		return maxConnections;
+	}
+
+	@ManagedAttribute(description = "Number of connections in use")
+	public int getConnections()
+	{
+		return hosts.values().stream().mapToInt(h ->
+		{
+			synchronized (h)
+			{
+				return h.connections;
+			}
+		}).sum();
+	}
+
+	public boolean reset(@NonNull String host)
+	{
+		val h = hosts.get(host.toLowerCase());
+		if (h != null)
+			h.circuitBreaker.reset();
+		return h != null;
+	}
+
+	private HostStatus getStatus(String name, Host host)
+	{
+		synchronized (host)
+		{
+			return HostStatus.of(name,host.circuitBreaker.getState(),host.circuitBreaker.getFailures(),host.circuitBreaker.getOpenUntil(),host.running,host.connections);
+		}
+	}
+
+	private Host getHost(URL url)
+	{
+		return hosts.computeIfAbsent(HostName.of(url),h -> new Host(new CircuitBreaker(failureThreshold,openDuration,halfOpenProbes)));
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import dev.luin.file.client.core.transaction.TransactionUtils;
+import lombok.AccessLevel;
+import lombok.NonNull;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class LocalTaskNotifier implements TaskNotifier
+{
+	Map<String,Set<Runnable>> listeners = new ConcurrentHashMap<>();
+
+	@Override
+	public void addListener(@NonNull final String channel, @NonNull final Runnable listener)
+	{
+		listeners.computeIfAbsent(channel,c -> new CopyOnWriteArraySet<>()).add(listener);
+	}
+
+	@Override
+	public void signal(@NonNull final String channel)
+	{
+		// the task is not visible to the dispatcher before the transaction that created it commits
+		TransactionUtils.afterCommit(() -> wakeUp(channel));
+	}
+
+	protected Set<String> getChannels()
+	{
+		return listeners.keySet();
+	}
+
+	protected void wakeUp(final String channel)
+	{
+		log.debug("Waking up {}",channel);
+		listeners.getOrDefault(channel,Collections.emptySet()).forEach(Runnable::run);
+	}
+}
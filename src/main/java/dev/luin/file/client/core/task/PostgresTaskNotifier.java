@@ -0,0 +1,125 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import lombok.AccessLevel;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class PostgresTaskNotifier extends LocalTaskNotifier
+{
+	@NonNull
+	DataSource dataSource;
+	@NonNull
+	JdbcTemplate jdbcTemplate;
+	int pollTimeout;
+	@NonNull
+	ExecutorService listener;
+	// the payload of the notifications of this node, so they can be told apart from the ones of other nodes
+	String source = UUID.randomUUID().toString();
+	Map<String,Set<Runnable>> remoteListeners = new ConcurrentHashMap<>();
+
+	public PostgresTaskNotifier(@NonNull DataSource dataSource, int pollTimeout)
+	{
+		this.dataSource = dataSource;
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.pollTimeout = pollTimeout;
+		this.listener = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("taskNotifier-"));
+		listener.execute(this::listen);
+	}
+
+	@Override
+	public void addRemoteListener(@NonNull final String channel, @NonNull final Runnable listener)
+	{
+		remoteListeners.computeIfAbsent(channel,c -> new CopyOnWriteArraySet<>()).add(listener);
+	}
+
+	@Override
+	public void signal(@NonNull final String channel)
+	{
+		// NOTIFY is delivered to all listening nodes, including this one, when the current transaction commits
+		jdbcTemplate.queryForList("SELECT pg_notify(?,?)",channel,source);
+	}
+
+	private void listen()
+	{
+		while (!Thread.currentThread().isInterrupted())
+		{
+			try (val connection = dataSource.getConnection())
+			{
+				connection.setAutoCommit(true);
+				val pgConnection = connection.unwrap(PGConnection.class);
+				val listening = new HashSet<String>();
+				while (!Thread.currentThread().isInterrupted())
+				{
+					for (val channel : getChannels())
+						if (listening.add(channel))
+							try (val statement = connection.createStatement())
+							{
+								statement.execute("LISTEN " + channel);
+							}
+					val notifications = pgConnection.getNotifications(pollTimeout);
+					if (notifications != null)
+						for (val notification : notifications)
+						{
+							if (!source.equals(notification.getParameter()))
+								remoteListeners.getOrDefault(notification.getName(),Collections.emptySet()).forEach(Runnable::run);
+							wakeUp(notification.getName());
+						}
+				}
+			}
+			catch (SQLException e)
+			{
+				log.error("",e);
+				try
+				{
+					Thread.sleep(pollTimeout);
+				}
+				catch (InterruptedException ie)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		listener.shutdownNow();
+	}
+}
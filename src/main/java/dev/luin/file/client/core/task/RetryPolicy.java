@@ -0,0 +1,33 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import java.time.Duration;
+
+import io.vavr.control.Option;
+
+public interface RetryPolicy
+{
+	/**
+	 * @return whether the failed attempt may be retried, cause is null when the attempt was interrupted
+	 */
+	boolean isRetryable(Throwable cause);
+
+	/**
+	 * @return the delay before the next attempt, or none when the task has failed permanently
+	 */
+	Option<Duration> getDelay(int retries, Throwable cause);
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import dev.luin.file.client.core.datasource.DataSourceConfig.Location;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+@Configuration
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class TaskConfig
+{
+	@Autowired
+	DataSource dataSource;
+	@Value("${jdbc.url}")
+	String jdbcUrl;
+	@Value("${taskHandler.listenNotify}")
+	boolean listenNotify;
+	@Value("${taskHandler.listenNotify.pollTimeout}")
+	int pollTimeout;
+	@Value("${taskHandler.retry.retryableStatusCodes}")
+	Integer[] retryableStatusCodes;
+	@Value("${taskHandler.retry.permanentExceptions}")
+	Class<?>[] permanentExceptions;
+	@Value("${taskHandler.host.maxConcurrency}")
+	int hostMaxConcurrency;
+	@Value("${http.maxConnectionsPerHost}")
+	int hostMaxConnections;
+	@Value("${taskHandler.host.circuitBreaker.failureThreshold}")
+	int failureThreshold;
+	@Value("${taskHandler.host.circuitBreaker.openDuration}")
+	long openDuration;
+	@Value("${taskHandler.host.circuitBreaker.halfOpenProbes}")
+	int halfOpenProbes;
+
+	@Bean(destroyMethod = "close")
+	public TaskNotifier taskNotifier()
+	{
+		if (listenNotify && jdbcUrl.startsWith(Location.POSTGRES.getJdbcUrl()))
+			return new PostgresTaskNotifier(dataSource,pollTimeout);
+		else
+			return new LocalTaskNotifier();
+	}
+
+	@Bean
+	public ErrorClassifier errorClassifier()
+	{
+		return new ErrorClassifier(HashSet.of(retryableStatusCodes),List.of(permanentExceptions));
+	}
+
+	@Bean
+	public HostGuard hostGuard()
+	{
+		return new HostGuard(hostMaxConcurrency,hostMaxConnections,failureThreshold,Duration.ofMillis(openDuration),halfOpenProbes,errorClassifier());
+	}
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import io.vavr.Function0;
+import io.vavr.Function1;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.val;
+import lombok.var;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class TaskDispatcher<T> implements AutoCloseable
+{
+	@NonNull
+	String name;
+	int concurrency;
+	long shutdownTimeout;
+	long delay;
+	long maxDelay;
+	@NonNull
+	Function1<T,Long> getId;
+	@NonNull
+	Function1<Integer,Seq<T>> getNextTasks;
+	@NonNull
+	Function0<Option<Instant>> getNextScheduleTime;
+	@NonNull
+	Consumer<Seq<Long>> renewLeases;
+	@NonNull
+	Consumer<T> handler;
+	@NonNull
+	Function1<T,Boolean> acquire;
+	@NonNull
+	Consumer<T> release;
+	@NonNull
+	Consumer<T> requeue;
+	@NonNull
+	ThreadPoolExecutor executor;
+	@NonNull
+	ExecutorService scheduler;
+	Set<Long> running = ConcurrentHashMap.newKeySet();
+	AtomicBoolean started = new AtomicBoolean();
+	AtomicBoolean wakeUpRequested = new AtomicBoolean();
+	Object lock = new Object();
+
+	@Builder
+	public TaskDispatcher(
+			@NonNull String name,
+			int concurrency,
+			long shutdownTimeout,
+			long delay,
+			long maxDelay,
+			@NonNull Function1<T,Long> getId,
+			@NonNull Function1<Integer,Seq<T>> getNextTasks,
+			@NonNull Function0<Option<Instant>> getNextScheduleTime,
+			@NonNull Consumer<Seq<Long>> renewLeases,
+			@NonNull Consumer<T> handler,
+			@NonNull Function1<T,Boolean> acquire,
+			@NonNull Consumer<T> release,
+			@NonNull Consumer<T> requeue)
+	{
+		if (concurrency < 1)
+			throw new IllegalArgumentException("Concurrency of " + name + " must be at least 1");
+		this.name = name;
+		this.concurrency = concurrency;
+		this.shutdownTimeout = shutdownTimeout;
+		this.delay = delay;
+		this.maxDelay = Math.max(delay,maxDelay);
+		this.getId = getId;
+		this.getNextTasks = getNextTasks;
+		this.getNextScheduleTime = getNextScheduleTime;
+		this.renewLeases = renewLeases;
+		this.handler = handler;
+		this.acquire = acquire;
+		this.release = release;
+		this.requeue = requeue;
+		this.executor = new ThreadPoolExecutor(concurrency,concurrency,0L,TimeUnit.MILLISECONDS,new ArrayBlockingQueue<>(concurrency),new CustomizableThreadFactory(name + "-"));
+		this.scheduler = Executors.newSingleThreadExecutor(new CustomizableThreadFactory(name + "Scheduler-"));
+	}
+
+	public void start()
+	{
+		if (started.compareAndSet(false,true))
+			scheduler.execute(this::schedule);
+	}
+
+	public void wakeUp()
+	{
+		synchronized (lock)
+		{
+			wakeUpRequested.set(true);
+			lock.notifyAll();
+		}
+	}
+
+	private void schedule()
+	{
+		var pollDelay = delay;
+		var lastRenewal = 0L;
+		while (!executor.isShutdown())
+		{
+			var waitTime = delay;
+			try
+			{
+				if (System.currentTimeMillis() - lastRenewal >= delay)
+				{
+					renewLeases();
+					lastRenewal = System.currentTimeMillis();
+				}
+				val dispatched = dispatch();
+				// back off while idle, the scheduler is woken up when tasks are created or finished
+				pollDelay = dispatched > 0 || !running.isEmpty() ? delay : Math.min(pollDelay * 2,maxDelay);
+				waitTime = getWaitTime(pollDelay);
+			}
+			catch (Exception e)
+			{
+				log.error("",e);
+				pollDelay = delay;
+			}
+			try
+			{
+				await(waitTime);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private synchronized int dispatch()
+	{
+		if (executor.isShutdown())
+			return 0;
+		val capacity = concurrency - running.size();
+		if (capacity <= 0)
+			return 0;
+		val tasks = getNextTasks.apply(capacity)
+				.filter(t -> !running.contains(getId.apply(t)))
+				.filter(acquire::apply);
+		tasks.forEach(this::submit);
+		return tasks.size();
+	}
+
+	private void renewLeases()
+	{
+		if (!running.isEmpty())
+			renewLeases.accept(List.ofAll(running));
+	}
+
+	private long getWaitTime(final long pollDelay)
+	{
+		if (running.size() >= concurrency)
+			return pollDelay;
+		return getNextScheduleTime.apply()
+				.map(t -> Duration.between(Instant.now(),t).toMillis())
+				.filter(t -> t > 0)
+				.map(t -> Math.min(t,pollDelay))
+				.getOrElse(pollDelay);
+	}
+
+	private void await(final long timeout) throws InterruptedException
+	{
+		synchronized (lock)
+		{
+			if (!wakeUpRequested.getAndSet(false))
+				lock.wait(timeout);
+			wakeUpRequested.set(false);
+		}
+	}
+
+	public int getRunning()
+	{
+		return running.size();
+	}
+
+	private void submit(final T task)
+	{
+		val id = getId.apply(task);
+		running.add(id);
+		try
+		{
+			executor.execute(() -> run(id,task));
+		}
+		catch (RejectedExecutionException e)
+		{
+			running.remove(id);
+			release.accept(task);
+			log.warn("{} rejected task {}",name,id);
+			// the task has been claimed, hand it back instead of waiting for its lease to expire
+			try
+			{
+				requeue.accept(task);
+			}
+			catch (Exception re)
+			{
+				log.error("",re);
+			}
+		}
+	}
+
+	private void run(final Long id, final T task)
+	{
+		try
+		{
+			handler.accept(task);
+		}
+		catch (Exception e)
+		{
+			log.error("",e);
+		}
+		finally
+		{
+			release.accept(task);
+			running.remove(id);
+		}
+		wakeUp();
+	}
+
+	@Override
+	public void close()
+	{
+		log.info("Stopping {}, waiting for {} running task(s)",name,running.size());
+		executor.shutdown();
+		scheduler.shutdownNow();
+		try
+		{
+			if (!executor.awaitTermination(shutdownTimeout,TimeUnit.MILLISECONDS))
+			{
+				log.warn("{} did not stop in time, interrupting {} task(s)",name,running.size());
+				executor.shutdownNow();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
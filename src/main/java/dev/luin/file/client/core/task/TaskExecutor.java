@@ -0,0 +1,59 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import java.io.IOException;
+
+import io.tus.java.client.ProtocolException;
+import io.tus.java.client.TusExecutor;
+import lombok.val;
+import lombok.var;
+
+/**
+ * Retries an attempt after the delays of the {@link TusExecutor}, but gives up immediately on errors that the {@link RetryPolicy} considers permanent.
+ */
+public abstract class TaskExecutor extends TusExecutor
+{
+	protected abstract RetryPolicy getRetryPolicy();
+
+	@Override
+	public boolean makeAttempts() throws ProtocolException, IOException
+	{
+		val delays = getDelays();
+		for (var attempt = 0;; attempt++)
+		{
+			try
+			{
+				makeAttempt();
+				return true;
+			}
+			catch (ProtocolException | IOException e)
+			{
+				if (attempt >= delays.length || !getRetryPolicy().isRetryable(e))
+					throw e;
+			}
+			try
+			{
+				Thread.sleep(delays[attempt]);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import lombok.NonNull;
+
+public interface TaskNotifier extends AutoCloseable
+{
+	void addListener(@NonNull String channel, @NonNull Runnable listener);
+
+	/**
+	 * Adds a listener that only runs for signals of other nodes, before the listeners of {@link #addListener}. A notifier that is local to this node never runs it.
+	 */
+	default void addRemoteListener(@NonNull String channel, @NonNull Runnable listener)
+	{
+	}
+
+	void signal(@NonNull String channel);
+
+	@Override
+	default void close()
+	{
+	}
+}
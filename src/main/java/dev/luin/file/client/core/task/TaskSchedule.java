@@ -0,0 +1,148 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import io.vavr.Tuple2;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import lombok.AccessLevel;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.val;
+import lombok.var;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * In-memory schedule of the tasks that become due within a window. The window is loaded from the database and kept up to date by the task manager on every insert and update.
+ * Entries that are replaced or removed stay in the queue and are skipped when they come up. A refresh replaces the schedule.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class TaskSchedule
+{
+	@Value
+	private static class Entry implements Comparable<Entry>
+	{
+		long id;
+		@NonNull
+		Instant time;
+
+		@Override
+		public int compareTo(Entry o)
+		{
+			return time.compareTo(o.time);
+		}
+	}
+
+	final PriorityQueue<Entry> queue = new PriorityQueue<>();
+	final Map<Long,Instant> times = new HashMap<>();
+	Instant until = Instant.MIN;
+	Instant refreshAt = Instant.MIN;
+	// the changes made while the entries of a refresh are loaded, null values are removals
+	Map<Long,Instant> changes;
+
+	public synchronized boolean isExpired(@NonNull Instant now)
+	{
+		return !now.isBefore(refreshAt);
+	}
+
+	/**
+	 * Expires the schedule, so the next claim reloads it. Used when another node has changed the tasks.
+	 */
+	public synchronized void invalidate()
+	{
+		refreshAt = Instant.MIN;
+	}
+
+	public synchronized void startRefresh()
+	{
+		changes = new HashMap<>();
+	}
+
+	public synchronized void refresh(@NonNull Seq<Tuple2<Long,Instant>> entries, @NonNull Instant until, @NonNull Instant refreshAt)
+	{
+		this.until = until;
+		this.refreshAt = until.isBefore(refreshAt) ? until : refreshAt;
+		queue.clear();
+		times.clear();
+		entries.forEach(e -> put(e._1,e._2));
+		// replay the changes made while the entries were loaded, they are newer
+		if (changes != null)
+			changes.forEach((id,time) ->
+			{
+				if (time != null && time.isBefore(until))
+					put(id,time);
+				else
+					times.remove(id);
+			});
+		changes = null;
+	}
+
+	public synchronized void add(long id, @NonNull Instant time)
+	{
+		if (changes != null)
+			changes.put(id,time);
+		if (time.isBefore(until))
+			put(id,time);
+		else
+			times.remove(id);
+	}
+
+	public synchronized void remove(long id)
+	{
+		if (changes != null)
+			changes.put(id,null);
+		times.remove(id);
+	}
+
+	public synchronized Seq<Long> pollDue(@NonNull Instant now, int maxResults)
+	{
+		var result = List.<Long>empty();
+		while (result.size() < maxResults && !queue.isEmpty() && queue.peek().getTime().isBefore(now))
+		{
+			val entry = queue.poll();
+			if (entry.getTime().equals(times.get(entry.getId())))
+			{
+				times.remove(entry.getId());
+				result = result.append(entry.getId());
+			}
+		}
+		return result;
+	}
+
+	public synchronized Instant getNextTime()
+	{
+		while (!queue.isEmpty() && !queue.peek().getTime().equals(times.get(queue.peek().getId())))
+			queue.poll();
+		// tasks of other nodes and expired leases only show up after the next refresh
+		return queue.isEmpty() || refreshAt.isBefore(queue.peek().getTime()) ? refreshAt : queue.peek().getTime();
+	}
+
+	public synchronized int size()
+	{
+		return times.size();
+	}
+
+	private void put(long id, Instant time)
+	{
+		times.put(id,time);
+		queue.add(new Entry(id,time));
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.upload;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Write-through cache of upload URLs. Only URLs that are found are cached, so an upload created by another node is still looked up in the store.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@AllArgsConstructor
+public class CachedTusURLStore implements UploadURLStore
+{
+	@NonNull
+	UploadURLStore store;
+	Map<String,URL> urls = new ConcurrentHashMap<>();
+
+	@Override
+	public void set(String fingerprint, URL url)
+	{
+		store.set(fingerprint,url);
+		urls.put(fingerprint,url);
+	}
+
+	@Override
+	public URL get(String fingerprint)
+	{
+		val result = urls.get(fingerprint);
+		if (result != null)
+			return result;
+		val url = store.get(fingerprint);
+		if (url != null)
+			urls.put(fingerprint,url);
+		return url;
+	}
+
+	@Override
+	public void remove(String fingerprint)
+	{
+		urls.remove(fingerprint);
+		store.remove(fingerprint);
+	}
+
+	@Override
+	public void removeAll(long fileId)
+	{
+		urls.keySet().removeIf(f -> TusUrlDAO.getFileId(f) == fileId);
+		store.removeAll(fileId);
+	}
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.upload;
+
+import java.io.IOException;
+
+import io.tus.java.client.ProtocolException;
+import io.tus.java.client.TusUploader;
+import lombok.AccessLevel;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Sizes the PATCH requests of a single upload like TCP slow start: the request payload doubles while the throughput keeps improving, then grows additively and halves when the throughput collapses.
+ * The payload is never smaller than what keeps the round trip time below an eighth of the request time.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+class ChunkSizeController
+{
+	private static final double MIN_GAIN = 1.1;
+	private static final int ROUND_TRIPS = 8;
+	final int minChunkSize;
+	final int maxChunkSize;
+	final int minPayloadSize;
+	final int maxPayloadSize;
+	@NonNull
+	final UploadStatistics statistics;
+	int payloadSize;
+	int chunkSize;
+	boolean slowStart = true;
+	double bestThroughput;
+	long requestStart;
+	long requestBytes;
+	int requestChunks;
+
+	public ChunkSizeController(int minChunkSize, int maxChunkSize, int minPayloadSize, int maxPayloadSize, @NonNull UploadStatistics statistics)
+	{
+		this.minChunkSize = Math.max(1,minChunkSize);
+		this.maxChunkSize = Math.max(this.minChunkSize,maxChunkSize);
+		this.minPayloadSize = Math.max(1,minPayloadSize);
+		this.maxPayloadSize = Math.max(this.minPayloadSize,maxPayloadSize);
+		this.statistics = statistics;
+		setPayloadSize(this.minPayloadSize);
+	}
+
+	public int uploadChunk(@NonNull TusUploader uploader) throws ProtocolException, IOException
+	{
+		if (requestChunks == 0)
+		{
+			uploader.setRequestPayloadSize(payloadSize);
+			uploader.setChunkSize(chunkSize);
+			requestStart = System.nanoTime();
+		}
+		val start = System.nanoTime();
+		val result = uploader.uploadChunk();
+		if (result > 0)
+		{
+			requestBytes += result;
+			requestChunks++;
+			// the uploader finishes the PATCH request as soon as the payload is sent
+			if (requestBytes >= payloadSize)
+				onRequest(System.nanoTime() - start);
+		}
+		return result;
+	}
+
+	private void onRequest(long lastChunkTime)
+	{
+		val requestTime = Math.max(1,System.nanoTime() - requestStart);
+		// the last chunk waits for the response, the other chunks only for the network
+		val roundTripTime = requestChunks > 1 ? Math.max(0,lastChunkTime - (requestTime - lastChunkTime) / (requestChunks - 1)) : lastChunkTime;
+		val throughput = requestBytes * 1e9 / requestTime;
+		statistics.recordRequest(requestBytes,requestTime,roundTripTime);
+		if (slowStart)
+		{
+			if (throughput > bestThroughput * MIN_GAIN)
+				setPayloadSize((long)payloadSize * 2);
+			else
+				slowStart = false;
+		}
+		else if (throughput < bestThroughput / 2)
+		{
+			setPayloadSize(payloadSize / 2);
+			bestThroughput = throughput;
+		}
+		else if (throughput > bestThroughput)
+			setPayloadSize((long)payloadSize + minPayloadSize);
+		bestThroughput = Math.max(bestThroughput,throughput);
+		setPayloadSize(Math.max(payloadSize,(long)(throughput * roundTripTime / 1e9 * ROUND_TRIPS)));
+		requestBytes = 0;
+		requestChunks = 0;
+	}
+
+	private void setPayloadSize(long size)
+	{
+		payloadSize = (int)Math.max(minPayloadSize,Math.min(maxPayloadSize,size));
+		chunkSize = Math.max(minChunkSize,Math.min(maxChunkSize,payloadSize));
+		statistics.recordSizes(payloadSize,chunkSize);
+	}
+
+	public int getPayloadSize()
+	{
+		return payloadSize;
+	}
+
+	public int getChunkSize()
+	{
+		return chunkSize;
+	}
+}
@@ -21,9 +21,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.GeneralSecurityException;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLSocketFactory;
-
+import dev.luin.file.client.core.http.HttpConnectionFactory;
 import dev.luin.file.client.core.security.KeyStore;
 import dev.luin.file.client.core.security.KeyStoreType;
 import dev.luin.file.client.core.security.TrustStore;
@@ -42,17 +40,13 @@ import lombok.experimental.FieldDefaults;
 @AllArgsConstructor
 public class Client extends TusClient
 {
-	SSLSocketFactory sslSocketFactory;
+	HttpConnectionFactory connectionFactory;
 
 	@Override
 	public void prepareConnection(HttpURLConnection connection)
 	{
 		super.prepareConnection(connection);
-		if (connection instanceof HttpsURLConnection)
-		{
-			HttpsURLConnection secureConnection = (HttpsURLConnection)connection;
-			secureConnection.setSSLSocketFactory(sslSocketFactory);
-	  }
+		connectionFactory.prepareConnection(connection);
 	}
 
 	public static void main(String[] args) throws GeneralSecurityException, IOException, Exception
@@ -66,7 +60,7 @@ public class Client extends TusClient
 				.enabledCipherSuites(new String[]{"TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384","TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384"})
 				.verifyHostnames(true)
 				.build();
-		val client = new Client(sslFactoryManager.getSslSocketFactory());
+		val client = new Client(new HttpConnectionFactory(sslFactoryManager));
 		client.setUploadCreationURL(new URL("https://localhost:8443/files/upload"));
 		client.enableResuming(new TusURLMemoryStore());
 		val file = new File(args[0]);
@@ -79,14 +73,14 @@ public class Client extends TusClient
 			protected void makeAttempt() throws ProtocolException, IOException
 			{
 				TusUploader uploader = client.resumeOrCreateUpload(upload);
-				uploader.setChunkSize(1024);
+				ChunkSizeController chunkSizeController = new ChunkSizeController(64 * 1024,2 * 1024 * 1024,1024 * 1024,64 * 1024 * 1024,new UploadStatistics());
 				do
 				{
 					long totalBytes = upload.getSize();
 					long bytesUploaded = uploader.getOffset();
 					double progress = (double)bytesUploaded / totalBytes * 100;
 					System.out.printf("Upload at %06.2f%%.\n",progress);
-				} while (uploader.uploadChunk() > -1);
+				} while (chunkSizeController.uploadChunk(uploader) > -1);
 				uploader.finish();
 				System.out.println("Upload finished.");
 				System.out.format("Upload available at: %s",uploader.getUploadURL().toString());
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.upload;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import dev.luin.file.client.core.file.FSFile;
+import dev.luin.file.client.core.http.HttpConnectionFactory;
+import dev.luin.file.client.core.http.Throttle;
+import io.tus.java.client.ProtocolException;
+import io.tus.java.client.TusClient;
+import io.tus.java.client.TusUpload;
+import io.tus.java.client.TusUploader;
+import io.vavr.Function0;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.val;
+import lombok.var;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Uploads the parts of a file concurrently as partial uploads and concatenates them into the final upload using the tus concatenation extension.
+ */
+@Slf4j
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@AllArgsConstructor
+class ConcatenatedUpload
+{
+	private static final long CHECKPOINT_SIZE = 4 * 1024 * 1024;
+	@NonNull
+	HttpConnectionFactory connectionFactory;
+	@NonNull
+	UploadTaskManager uploadTaskManager;
+	@NonNull
+	URL creationUrl;
+	@NonNull
+	FSFile fsFile;
+	@NonNull
+	Map<String,String> metadata;
+	@NonNull
+	Function0<ChunkSizeController> createChunkSizeController;
+	@NonNull
+	Throttle throttle;
+
+	public static boolean isSupported(@NonNull final HttpConnectionFactory connectionFactory, @NonNull final URL creationUrl) throws IOException
+	{
+		val connection = connectionFactory.createConnection(creationUrl);
+		connection.setRequestMethod("OPTIONS");
+		return connection.getResponseCode() / 100 == 2 && Option.of(connection.getHeaderField("Tus-Extension"))
+				.map(h -> List.of(h.split(",")).map(String::trim).contains("concatenation"))
+				.getOrElse(false);
+	}
+
+	public URL upload(@NonNull final Seq<UploadPart> parts, final int connections) throws IOException, ProtocolException
+	{
+		val pending = parts.filter(p -> !p.isCompleted());
+		if (!pending.isEmpty())
+		{
+			// the parts that do not get a connection wait for one of the others to finish
+			val executor = Executors.newFixedThreadPool(Math.max(1,Math.min(pending.size(),connections)));
+			try
+			{
+				// every part is retried individually by the next attempt, so wait for all of them
+				val futures = pending.map(p -> executor.submit(() -> upload(p)));
+				var exception = (IOException)null;
+				for (val future : futures)
+				{
+					val e = await(future);
+					if (exception == null && e != null)
+						exception = e;
+				}
+				if (exception != null)
+					throw exception;
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
+		}
+		return concatenate(uploadTaskManager.getParts(fsFile.getId()).map(p -> p.getUrl()));
+	}
+
+	private IOException await(final Future<UploadPart> future)
+	{
+		try
+		{
+			future.get();
+			return null;
+		}
+		catch (ExecutionException e)
+		{
+			return e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return new IOException(e);
+		}
+	}
+
+	private UploadPart upload(final UploadPart part) throws IOException, ProtocolException
+	{
+		log.debug("Uploading part {} of {}",part,fsFile);
+		val client = createClient();
+		val upload = createUpload(part);
+		try
+		{
+			var result = part;
+			var uploader = (TusUploader)null;
+			if (result.getUrl() != null)
+				try
+				{
+					uploader = client.beginOrResumeUploadFromURL(upload,result.getUrl());
+				}
+				catch (ProtocolException e)
+				{
+					log.warn("Cannot resume part {} of {}, uploading it again",result,fsFile);
+				}
+			if (uploader == null)
+			{
+				uploader = client.createUpload(upload);
+				result = uploadTaskManager.updatePart(result.withUrl(uploader.getUploadURL()).withNextByte(result.getFirstByte()));
+			}
+			val chunkSizeController = createChunkSizeController.apply();
+			var checkpoint = uploader.getOffset();
+			while (chunkSizeController.uploadChunk(uploader) > -1)
+				if (uploader.getOffset() - checkpoint >= CHECKPOINT_SIZE)
+				{
+					checkpoint = uploader.getOffset();
+					result = uploadTaskManager.updatePart(result.withNextByte(result.getFirstByte() + checkpoint));
+				}
+			uploader.finish();
+			result = uploadTaskManager.updatePart(result.withNextByte(result.getLastByte() + 1));
+			log.debug("Uploaded part {} of {}",result,fsFile);
+			return result;
+		}
+		finally
+		{
+			upload.getInputStream().close();
+		}
+	}
+
+	private Client createClient()
+	{
+		val result = new Client(connectionFactory);
+		result.setUploadCreationURL(creationUrl);
+		result.setHeaders(Collections.singletonMap("Upload-Concat","partial"));
+		return result;
+	}
+
+	private TusUpload createUpload(final UploadPart part) throws IOException
+	{
+		val result = new TusUpload();
+		result.setSize(part.getLength());
+		result.setInputStream(throttle.throttle(new FileRangeInputStream(fsFile.getFile(),part.getFirstByte(),part.getLength())));
+		return result;
+	}
+
+	private URL concatenate(final Seq<URL> urls) throws IOException, ProtocolException
+	{
+		val upload = new TusUpload();
+		upload.setMetadata(metadata);
+		val connection = connectionFactory.createConnection(creationUrl);
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Tus-Resumable",TusClient.TUS_VERSION);
+		connection.setRequestProperty("Upload-Concat","final;" + urls.mkString(" "));
+		connection.setRequestProperty("Upload-Metadata",upload.getEncodedMetadata());
+		val responseCode = connection.getResponseCode();
+		if (responseCode / 100 != 2)
+			throw new ProtocolException("Unexpected status code " + responseCode + " while concatenating upload",connection);
+		val location = connection.getHeaderField("Location");
+		if (location == null || location.isEmpty())
+			throw new ProtocolException("Missing upload URL in response for concatenating upload",connection);
+		return new URL(creationUrl,location);
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import lombok.AccessLevel;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Reads a range of a file. Supports mark and reset without buffering, so the tus uploader can rewind to the last acknowledged offset.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+class FileRangeInputStream extends InputStream
+{
+	@NonNull
+	final RandomAccessFile file;
+	final long first;
+	final long length;
+	long position;
+	long mark;
+
+	public FileRangeInputStream(@NonNull File file, long first, long length) throws IOException
+	{
+		this.file = new RandomAccessFile(file,"r");
+		this.first = first;
+		this.length = length;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		val b = new byte[1];
+		return read(b,0,1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0)
+			return 0;
+		if (position >= length)
+			return -1;
+		file.seek(first + position);
+		val result = file.read(b,off,(int)Math.min(len,length - position));
+		if (result > 0)
+			position += result;
+		return result;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		val result = Math.max(0,Math.min(n,length - position));
+		position += result;
+		return result;
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit)
+	{
+		mark = position;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException
+	{
+		position = mark;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		file.close();
+	}
+}
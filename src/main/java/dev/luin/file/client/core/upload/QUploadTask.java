@@ -46,6 +46,10 @@ public class QUploadTask extends com.querydsl.sql.RelationalPathBase<QUploadTask
 
     public final NumberPath<Long> fileId = createNumber("fileId", Long.class);
 
+    public final DateTimePath<java.time.Instant> leaseTime = createDateTime("leaseTime", java.time.Instant.class);
+
+    public final StringPath owner = createString("owner");
+
     public final NumberPath<Integer> retries = createNumber("retries", Integer.class);
 
     public final DateTimePath<java.time.Instant> scheduleTime = createDateTime("scheduleTime", java.time.Instant.class);
@@ -56,6 +60,10 @@ public class QUploadTask extends com.querydsl.sql.RelationalPathBase<QUploadTask
 
     public final DateTimePath<java.time.Instant> timestamp = createDateTime("time_stamp", java.time.Instant.class);
 
+    public final SimplePath<java.net.URL> uploadUrl = createSimple("uploadUrl",java.net.URL.class);
+
+    public final StringPath uploadFingerprint = createString("uploadFingerprint");
+
     public final com.querydsl.sql.ForeignKey<QFile> sysFk10151 = createForeignKey(fileId, "id");
 
     public QUploadTask(String variable) {
@@ -91,6 +99,10 @@ public class QUploadTask extends com.querydsl.sql.RelationalPathBase<QUploadTask
         addMetadata(status, ColumnMetadata.named("status").withIndex(4).ofType(Types.TINYINT).withSize(8));
         addMetadata(statusTime, ColumnMetadata.named("status_time").withIndex(5).ofType(Types.TIMESTAMP).withSize(26).notNull());
         addMetadata(timestamp, ColumnMetadata.named("time_stamp").withIndex(3).ofType(Types.TIMESTAMP).withSize(26).notNull());
+        addMetadata(owner, ColumnMetadata.named("owner").withIndex(8).ofType(Types.VARCHAR).withSize(64));
+        addMetadata(leaseTime, ColumnMetadata.named("lease_time").withIndex(9).ofType(Types.TIMESTAMP).withSize(26));
+        addMetadata(uploadUrl, ColumnMetadata.named("upload_url").withIndex(10).ofType(Types.VARCHAR).withSize(256));
+        addMetadata(uploadFingerprint, ColumnMetadata.named("upload_fingerprint").withIndex(11).ofType(Types.VARCHAR).withSize(64));
     }
 
 }
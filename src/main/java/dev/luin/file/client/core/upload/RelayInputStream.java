@@ -0,0 +1,144 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.upload;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+
+import dev.luin.file.client.core.file.FSFile;
+import dev.luin.file.client.core.file.FileSystem;
+import lombok.AccessLevel;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * Reads a file that is still being downloaded. Reads block until the download has persisted the requested bytes and fail when it makes no progress within the timeout.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE)
+class RelayInputStream extends InputStream
+{
+	@NonNull
+	final FileSystem fs;
+	final long fileId;
+	final long length;
+	final long pollInterval;
+	final long timeout;
+	@NonNull
+	final RandomAccessFile file;
+	long position;
+	long available;
+	long mark;
+
+	public RelayInputStream(@NonNull FileSystem fs, @NonNull FSFile fsFile, long pollInterval, long timeout) throws IOException
+	{
+		if (fsFile.getLength() == null)
+			throw new IllegalArgumentException("Length of file " + fsFile.getId() + " is unknown");
+		this.fs = fs;
+		this.fileId = fsFile.getId();
+		this.length = fsFile.getLength();
+		this.pollInterval = pollInterval;
+		this.timeout = timeout;
+		this.file = new RandomAccessFile(fsFile.getFile(),"r");
+		this.available = fsFile.getFileLength();
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		val b = new byte[1];
+		return read(b,0,1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0)
+			return 0;
+		if (position >= length)
+			return -1;
+		awaitData();
+		file.seek(position);
+		val result = file.read(b,off,(int)Math.min(len,available - position));
+		if (result == -1)
+			throw new EOFException("Unexpected end of file " + fileId + " at " + position);
+		position += result;
+		return result;
+	}
+
+	private void awaitData() throws IOException
+	{
+		val deadline = System.currentTimeMillis() + timeout;
+		while (position >= available)
+		{
+			if (System.currentTimeMillis() >= deadline)
+				throw new IOException("No progress on download of file " + fileId + " at " + position + " within " + timeout + " ms");
+			try
+			{
+				Thread.sleep(pollInterval);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			available = fs.findFile(fileId)
+					.map(f -> f.getFileLength())
+					.getOrElseThrow(() -> new IOException("File " + fileId + " not found"));
+		}
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		val start = position;
+		val target = Math.min(position + Math.max(n,0),length);
+		while (available < target)
+		{
+			position = available;
+			awaitData();
+		}
+		position = target;
+		return target - start;
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit)
+	{
+		mark = position;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException
+	{
+		position = mark;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		file.close();
+	}
+}
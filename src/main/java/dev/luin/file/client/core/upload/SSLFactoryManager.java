@@ -23,6 +23,7 @@ import java.net.UnknownHostException;
 import java.security.Principal;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -106,23 +107,29 @@ public class SSLFactoryManager
 		public Socket createSocket() throws IOException
 		{
 			val socket = (SSLSocket)sslSocketFactory.createSocket();
-			socket.setSSLParameters(sslParameters);
-			return socket;
+			return prepare(socket);
 		}
 
 		@Override
 		public Socket createSocket(Socket s, InputStream consumed, boolean autoClose) throws IOException
 		{
 			val socket = (SSLSocket)sslSocketFactory.createSocket(s,consumed,autoClose);
-			socket.setSSLParameters(sslParameters);
-			return socket;
+			return prepare(socket);
 		}
 
 		@Override
 		public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException
 		{
 			val socket = (SSLSocket)sslSocketFactory.createSocket(s,host,port,autoClose);
+			return prepare(socket);
+		}
+
+		private Socket prepare(SSLSocket socket)
+		{
 			socket.setSSLParameters(sslParameters);
+			sockets.incrementAndGet();
+			val created = System.currentTimeMillis();
+			socket.addHandshakeCompletedListener(e -> (e.getSession().getCreationTime() < created ? resumedHandshakes : fullHandshakes).incrementAndGet());
 			return socket;
 		}
 
@@ -142,32 +149,28 @@ public class SSLFactoryManager
 		public Socket createSocket(String host, int port) throws IOException, UnknownHostException
 		{
 			val socket = (SSLSocket)sslSocketFactory.createSocket(host,port);
-			socket.setSSLParameters(sslParameters);
-			return socket;
+			return prepare(socket);
 		}
 
 		@Override
 		public Socket createSocket(InetAddress host, int port) throws IOException
 		{
 			val socket = (SSLSocket)sslSocketFactory.createSocket(host,port);
-			socket.setSSLParameters(sslParameters);
-			return socket;
+			return prepare(socket);
 		}
 
 		@Override
 		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException, UnknownHostException
 		{
 			val socket = (SSLSocket)sslSocketFactory.createSocket(host,port,localHost,localPort);
-			socket.setSSLParameters(sslParameters);
-			return socket;
+			return prepare(socket);
 		}
 
 		@Override
 		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException
 		{
 			val socket = (SSLSocket)sslSocketFactory.createSocket(address,port,localAddress,localPort);
-			socket.setSSLParameters(sslParameters);
-			return socket;
+			return prepare(socket);
 		}
 	}
 
@@ -182,6 +185,9 @@ public class SSLFactoryManager
 	String[] enabledCipherSuites;
 	@Getter
 	SSLSocketFactory sslSocketFactory;
+	AtomicLong sockets = new AtomicLong();
+	AtomicLong fullHandshakes = new AtomicLong();
+	AtomicLong resumedHandshakes = new AtomicLong();
 
 	@Builder
 	public SSLFactoryManager(
@@ -190,7 +196,9 @@ public class SSLFactoryManager
 			boolean verifyHostnames,
 			String[] enabledProtocols,
 			String[] enabledCipherSuites,
-			String clientAlias) throws Exception
+			String clientAlias,
+			int sessionCacheSize,
+			int sessionTimeout) throws Exception
 	{
 		this.keyStore = keyStore;
 		this.trustStore = trustStore;
@@ -212,6 +220,10 @@ public class SSLFactoryManager
 
 		val sslContext = SSLContext.getInstance("TLS");
 		sslContext.init(kmf.getKeyManagers(),tmf.getTrustManagers(),null);
+		if (sessionCacheSize > 0)
+			sslContext.getClientSessionContext().setSessionCacheSize(sessionCacheSize);
+		if (sessionTimeout > 0)
+			sslContext.getClientSessionContext().setSessionTimeout(sessionTimeout);
 
 		//val engine = sslContext.createSSLEngine(hostname,port);
 		val engine = sslContext.createSSLEngine();
@@ -233,6 +245,21 @@ public class SSLFactoryManager
 		return result;
 	}
 
+	public long getSockets()
+	{
+		return sockets.get();
+	}
+
+	public long getFullHandshakes()
+	{
+		return fullHandshakes.get();
+	}
+
+	public long getResumedHandshakes()
+	{
+		return resumedHandshakes.get();
+	}
+
 	public HostnameVerifier getHostnameVerifier(HttpsURLConnection connection)
 	{
 		return verifyHostnames ? HttpsURLConnection.getDefaultHostnameVerifier() : (h,s) -> true;
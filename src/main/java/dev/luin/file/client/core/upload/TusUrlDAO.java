@@ -17,46 +17,72 @@ package dev.luin.file.client.core.upload;
 
 import java.net.URL;
 
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.querydsl.sql.SQLQueryFactory;
 
-import dev.luin.file.client.core.file.QFile;
-import io.tus.java.client.TusURLStore;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
+import lombok.val;
 import lombok.experimental.FieldDefaults;
 
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @AllArgsConstructor
 @Transactional(transactionManager = "dataSourceTransactionManager")
-public class TusUrlDAO implements TusURLStore
+public class TusUrlDAO implements UploadURLStore
 {
 	SQLQueryFactory queryFactory;
-	QFile table = QFile.file;
+	QUploadTask table = QUploadTask.uploadTask;
 
 	@Override
-	public void set(String id, URL url)
+	// the upload URL must survive the attempt that created the upload, whatever happens to the surrounding transaction
+	@Transactional(transactionManager = "dataSourceTransactionManager", propagation = Propagation.REQUIRES_NEW)
+	public void set(String fingerprint, URL url)
 	{
 		queryFactory.update(table)
-				.set(table.url,url)
-				.where(table.id.eq(Long.parseLong(id)));
+				.set(table.uploadUrl,url)
+				.set(table.uploadFingerprint,fingerprint)
+				.where(table.fileId.eq(getFileId(fingerprint)))
+				.execute();
 	}
 
 	@Override
-	public URL get(String id)
+	public URL get(String fingerprint)
 	{
-		return queryFactory.select(table.url)
+		val fileId = getFileId(fingerprint);
+		// URLs stored before fingerprints were stored belong to the plain upload
+		return queryFactory.select(table.uploadUrl)
 				.from(table)
-				.where(table.id.eq(Long.parseLong(id)))
+				.where(table.fileId.eq(fileId)
+						.and(table.uploadFingerprint.coalesce(String.valueOf(fileId)).asString().eq(fingerprint)))
 				.fetchOne();
 	}
 
 	@Override
-	public void remove(String id)
+	public void remove(String fingerprint)
 	{
-		//TODO: replace?
-//		queryFactory.delete(table)
-//				.where(table.id.eq(Long.parseLong(id)));
+		queryFactory.update(table)
+				.setNull(table.uploadUrl)
+				.setNull(table.uploadFingerprint)
+				.where(table.fileId.eq(getFileId(fingerprint)))
+				.execute();
+	}
+
+	@Override
+	public void removeAll(long fileId)
+	{
+		queryFactory.update(table)
+				.setNull(table.uploadUrl)
+				.setNull(table.uploadFingerprint)
+				.where(table.fileId.eq(fileId))
+				.execute();
+	}
+
+	// the fingerprint is the id of the file, followed by the content encoding for an encoded upload
+	static long getFileId(String fingerprint)
+	{
+		return Long.parseLong(StringUtils.substringBefore(fingerprint,"."));
 	}
 }
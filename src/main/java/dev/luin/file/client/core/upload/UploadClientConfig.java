@@ -15,24 +15,31 @@
  */
 package dev.luin.file.client.core.upload;
 
-import java.io.IOException;
-import java.security.GeneralSecurityException;
+import java.time.Duration;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
 import com.querydsl.sql.SQLQueryFactory;
 
+import dev.luin.file.client.core.datasource.DataSourceConfig.Location;
+import dev.luin.file.client.core.download.DownloadStatus;
+import dev.luin.file.client.core.download.DownloadTaskManager;
 import dev.luin.file.client.core.file.FileSystem;
-import dev.luin.file.client.core.security.KeyStore;
-import dev.luin.file.client.core.security.TrustStore;
-import io.tus.java.client.TusURLStore;
+import dev.luin.file.client.core.http.BandwidthLimiter;
+import dev.luin.file.client.core.http.CompressionStatistics;
+import dev.luin.file.client.core.http.HttpConnectionFactory;
+import dev.luin.file.client.core.task.ErrorClassifier;
+import dev.luin.file.client.core.task.ExponentialBackoffRetryPolicy;
+import dev.luin.file.client.core.task.HostGuard;
+import dev.luin.file.client.core.task.NodeId;
+import dev.luin.file.client.core.task.RetryPolicy;
+import dev.luin.file.client.core.task.TaskNotifier;
 import lombok.AccessLevel;
-import lombok.val;
 import lombok.experimental.FieldDefaults;
 
 @Configuration
@@ -41,55 +48,139 @@ import lombok.experimental.FieldDefaults;
 public class UploadClientConfig
 {
 	@Autowired
-	@Qualifier("clientKeyStore")
-	KeyStore clientKeyStore;
+	HttpConnectionFactory httpConnectionFactory;
 	@Autowired
-	TrustStore trustStore;
-	@Value("${https.enabledProtocols}")
-	String[] enabledProtocols;
-	@Value("${https.enabledCipherSuites}")
-	String[] enabledCipherSuites;
-	@Value("${https.verifyHostnames}")
-	boolean verifyHostnames;
+	BandwidthLimiter bandwidthLimiter;
+	@Autowired
+	CompressionStatistics compressionStatistics;
 	@Autowired
 	FileSystem fs;
 	@Autowired
 	SQLQueryFactory queryFactory;
+	@Autowired
+	TaskNotifier taskNotifier;
+	@Autowired
+	ErrorClassifier errorClassifier;
+	@Autowired
+	HostGuard hostGuard;
+	// lazy, because the download configuration depends on the upload task manager
+	@Autowired
+	@Lazy
+	DownloadTaskManager downloadTaskManager;
+	@Value("${jdbc.url}")
+	String jdbcUrl;
+	@Value("${taskHandler.nodeId}")
+	String nodeId;
 	@Value("${uploadTask.retry.maxAttempts}")
 	int maxRetries;
 	@Value("${uploadTask.retry.interval}")
 	int retryInterval;
-	@Value("${uploadTask.retry.maxMultiplier}")
-	int retryMaxMultiplier;
+	@Value("${uploadTask.retry.maxInterval}")
+	int retryMaxInterval;
+	@Value("${uploadTaskHandler.delay}")
+	long delay;
+	@Value("${uploadTaskHandler.maxDelay}")
+	long maxDelay;
+	@Value("${uploadTaskHandler.concurrency}")
+	int concurrency;
+	@Value("${uploadTaskHandler.shutdownTimeout}")
+	long shutdownTimeout;
+	@Value("${uploadTaskHandler.leaseDuration}")
+	long leaseDuration;
+	@Value("${uploadTaskHandler.scheduleWindow}")
+	long scheduleWindow;
+	@Value("${uploadTaskHandler.scheduleRefresh}")
+	long scheduleRefresh;
+	@Value("${uploadTaskHandler.relay.pollInterval}")
+	long relayPollInterval;
+	@Value("${uploadTaskHandler.relay.timeout}")
+	long relayTimeout;
+	@Value("${uploadTaskHandler.relay.startDelay}")
+	long relayStartDelay;
+	@Value("${uploadTaskHandler.chunkSize.min}")
+	int minChunkSize;
+	@Value("${uploadTaskHandler.chunkSize.max}")
+	int maxChunkSize;
+	@Value("${uploadTaskHandler.payloadSize.min}")
+	int minPayloadSize;
+	@Value("${uploadTaskHandler.payloadSize.max}")
+	int maxPayloadSize;
+	@Value("${uploadTaskHandler.parts}")
+	int parts;
+	@Value("${uploadTaskHandler.minPartSize}")
+	long minPartSize;
+	@Value("${uploadTaskHandler.compression.urlPattern}")
+	String compressionUrlPattern;
+
+	@Bean(destroyMethod = "close")
+	public UploadTaskHandler uploadTaskHandler() 
+	{
+		return UploadTaskHandler.builder()
+				.connectionFactory(httpConnectionFactory)
+				.bandwidthLimiter(bandwidthLimiter)
+				.compressionStatistics(compressionStatistics)
+				.fs(fs)
+				.uploadTaskManager(uploadTaskManager())
+				.retryPolicy(uploadRetryPolicy())
+				.relayPollInterval(relayPollInterval)
+				.relayTimeout(relayTimeout)
+				.relayStartDelay(relayStartDelay)
+				.isDownloading(fileId -> downloadTaskManager.getTask(fileId).exists(t -> t.getStatus() == DownloadStatus.CREATED || t.getStatus() == DownloadStatus.RUNNING))
+				.minChunkSize(minChunkSize)
+				.maxChunkSize(maxChunkSize)
+				.minPayloadSize(minPayloadSize)
+				.maxPayloadSize(maxPayloadSize)
+				.uploadStatistics(uploadStatistics())
+				.parts(parts)
+				.minPartSize(minPartSize)
+				.compressionUrlPattern(compressionUrlPattern)
+				.hostGuard(hostGuard)
+				.taskNotifier(taskNotifier)
+				.concurrency(concurrency)
+				.shutdownTimeout(shutdownTimeout)
+				.delay(delay)
+				.maxDelay(maxDelay)
+				.build();
+	}
 
 	@Bean
-	public UploadTaskHandler uploadTaskHandler() throws GeneralSecurityException, IOException, Exception
+	public UploadStatistics uploadStatistics()
 	{
-		val sslFactoryManager = SSLFactoryManager.builder()
-				.keyStore(clientKeyStore)
-				.trustStore(trustStore)
-				.enabledProtocols(enabledProtocols)
-				.enabledCipherSuites(enabledCipherSuites)
-				.verifyHostnames(verifyHostnames)
+		return new UploadStatistics();
+	}
+
+	@Bean
+	public RetryPolicy uploadRetryPolicy()
+	{
+		return ExponentialBackoffRetryPolicy.builder()
+				.maxAttempts(maxRetries)
+				.baseDelay(Duration.ofMinutes(retryInterval))
+				.maxDelay(Duration.ofMinutes(retryMaxInterval))
+				.errorClassifier(errorClassifier)
 				.build();
-		return new UploadTaskHandler(sslFactoryManager,fs,uploadTaskManager(),maxRetries);
 	}
 
 	@Bean
 	public UploadTaskManager uploadTaskManager()
 	{
-		return new UploadTaskManager(uploadTaskDAO(),tusDAO(),retryInterval,retryMaxMultiplier);
+		return new UploadTaskManager(uploadTaskDAO(),tusURLStore(),uploadRetryPolicy(),NodeId.of(nodeId),leaseDuration,scheduleWindow,scheduleRefresh,taskNotifier);
 	}
 
 	@Bean
 	public UploadTaskDAO uploadTaskDAO()
 	{
-		return new UploadTaskDAOImpl(queryFactory);
+		return new UploadTaskDAOImpl(queryFactory,Location.isSkipLockedSupported(jdbcUrl));
 	}
 
 	@Bean
-	public TusURLStore tusDAO()
+	public UploadURLStore tusDAO()
 	{
 		return new TusUrlDAO(queryFactory);
 	}
+
+	@Bean
+	public UploadURLStore tusURLStore()
+	{
+		return new CachedTusURLStore(tusDAO());
+	}
 }
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.upload;
+
+import java.net.URL;
+
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+import lombok.With;
+import lombok.val;
+
+@Value
+@AllArgsConstructor(access = AccessLevel.PUBLIC)
+public class UploadPart
+{
+	long fileId;
+	long firstByte;
+	long lastByte;
+	@With
+	long nextByte;
+	@With
+	URL url;
+
+	public boolean isCompleted()
+	{
+		return nextByte > lastByte;
+	}
+
+	public long getLength()
+	{
+		return lastByte - firstByte + 1;
+	}
+
+	static Seq<UploadPart> of(long fileId, long length, int count)
+	{
+		val size = length / count;
+		return List.range(0,count)
+				.map(i -> 
+				{
+					val firstByte = i * size;
+					val lastByte = i == count - 1 ? length - 1 : firstByte + size - 1;
+					return new UploadPart(fileId,firstByte,lastByte,firstByte,null);
+				});
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.upload;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import lombok.AccessLevel;
+import lombok.experimental.FieldDefaults;
+
+@ManagedResource(objectName = "dev.luin.file.client.core:type=UploadStatistics")
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class UploadStatistics
+{
+	AtomicLong requests = new AtomicLong();
+	AtomicLong bytes = new AtomicLong();
+	AtomicLong payloadSize = new AtomicLong();
+	AtomicLong chunkSize = new AtomicLong();
+	AtomicLong throughput = new AtomicLong();
+	AtomicLong roundTripTime = new AtomicLong();
+
+	void recordSizes(long payloadSize, long chunkSize)
+	{
+		this.payloadSize.set(payloadSize);
+		this.chunkSize.set(chunkSize);
+	}
+
+	void recordRequest(long bytes, long requestTime, long roundTripTime)
+	{
+		requests.incrementAndGet();
+		this.bytes.addAndGet(bytes);
+		throughput.set(bytes * TimeUnit.SECONDS.toNanos(1) / Math.max(1,requestTime));
+		this.roundTripTime.set(TimeUnit.NANOSECONDS.toMillis(roundTripTime));
+	}
+
+	@ManagedAttribute(description = "Number of PATCH requests that sent a full payload")
+	public long getRequests()
+	{
+		return requests.get();
+	}
+
+	@ManagedAttribute(description = "Number of bytes sent in full payloads")
+	public long getBytes()
+	{
+		return bytes.get();
+	}
+
+	@ManagedAttribute(description = "Last chosen request payload size in bytes")
+	public long getPayloadSize()
+	{
+		return payloadSize.get();
+	}
+
+	@ManagedAttribute(description = "Last chosen chunk size in bytes")
+	public long getChunkSize()
+	{
+		return chunkSize.get();
+	}
+
+	@ManagedAttribute(description = "Throughput of the last PATCH request in bytes per second")
+	public long getThroughput()
+	{
+		return throughput.get();
+	}
+
+	@ManagedAttribute(description = "Estimated round trip time of the last PATCH request in milliseconds")
+	public long getRoundTripTime()
+	{
+		return roundTripTime.get();
+	}
+}
@@ -17,5 +17,5 @@ package dev.luin.file.client.core.upload;
 
 public enum UploadStatus
 {
-	CREATED, SUCCEEDED, FAILED;
+	CREATED, SUCCEEDED, FAILED, RUNNING;
 }
@@ -48,11 +48,16 @@ public class UploadTask
 	int retries;
 
 	static UploadTask of(long fileId, String createUrl)
+	{
+		return of(fileId,createUrl,null);
+	}
+
+	static UploadTask of(long fileId, String createUrl, Instant startDate)
 	{
 		try
 		{
 			Instant now = Instant.now();
-			return new UploadTask(fileId,new URL(createUrl),now,UploadStatus.CREATED,now,now,0);
+			return new UploadTask(fileId,new URL(createUrl),now,UploadStatus.CREATED,now,startDate != null && startDate.isAfter(now) ? startDate : now,0);
 		}
 		catch (MalformedURLException e)
 		{
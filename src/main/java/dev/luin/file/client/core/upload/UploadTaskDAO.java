@@ -15,6 +15,9 @@
  */
 package dev.luin.file.client.core.upload;
 
+import java.time.Instant;
+
+import io.vavr.Tuple2;
 import io.vavr.collection.List;
 import io.vavr.collection.Seq;
 import io.vavr.control.Option;
@@ -22,10 +25,20 @@ import io.vavr.control.Option;
 public interface UploadTaskDAO
 {
 	Option<UploadTask> getTask(long fileId);
-	Option<UploadTask> getNextTask();
+	Seq<UploadTask> claimNextTasks(String owner, Instant leaseTime, int maxResults);
+	Option<UploadTask> claimTask(String owner, long fileId, Instant leaseTime);
+	long renewLeases(String owner, Seq<Long> fileIds, Instant leaseTime);
+	Seq<Tuple2<Long,Instant>> getScheduledTasks(Instant until, int maxResults);
+	Option<Instant> getNextScheduleTime();
 	Seq<UploadTask> getTasks();
 	Seq<UploadTask> getTasks(List<UploadStatus> statuses);
+	Seq<UploadTask> getTasks(List<UploadStatus> statuses, Long afterFileId, Instant from, Instant to, int maxResults);
 	UploadTask insert(UploadTask task);
-	long update(UploadTask task);
+	long update(String owner, UploadTask task);
+	long restart(long fileId, Instant scheduleTime);
 	long delete(long fileId);
+	Seq<UploadPart> getParts(long fileId);
+	UploadPart insertPart(UploadPart part);
+	long updatePart(UploadPart part);
+	long deleteParts(long fileId);
 }
@@ -19,17 +19,23 @@ import java.time.Instant;
 
 import org.springframework.transaction.annotation.Transactional;
 
+import com.querydsl.core.BooleanBuilder;
+import com.querydsl.core.QueryFlag.Position;
 import com.querydsl.core.types.ConstructorExpression;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Predicate;
 import com.querydsl.core.types.Projections;
 import com.querydsl.sql.SQLQueryFactory;
 
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
 import io.vavr.collection.List;
 import io.vavr.collection.Seq;
 import io.vavr.control.Option;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.NonNull;
+import lombok.val;
 import lombok.experimental.FieldDefaults;
 
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
@@ -39,9 +45,13 @@ class UploadTaskDAOImpl implements UploadTaskDAO
 {
 	@NonNull
 	SQLQueryFactory queryFactory;
+	boolean skipLocked;
 	QUploadTask table = QUploadTask.uploadTask;
 	Expression<?>[] uploadTaskColumns = {table.fileId,table.creationUrl,table.timestamp,table.status,table.statusTime,table.scheduleTime,table.retries};
 	ConstructorExpression<UploadTask> uploadTaskProjection = Projections.constructor(UploadTask.class,uploadTaskColumns);
+	QUploadPart partTable = QUploadPart.uploadPart;
+	Expression<?>[] uploadPartColumns = {partTable.fileId,partTable.firstByte,partTable.lastByte,partTable.nextByte,partTable.url};
+	ConstructorExpression<UploadPart> uploadPartProjection = Projections.constructor(UploadPart.class,uploadPartColumns);
 
 	@Override
 	public Option<UploadTask> getTask(long fileId)
@@ -53,14 +63,110 @@ class UploadTaskDAOImpl implements UploadTaskDAO
 	}
 
 	@Override
-	public Option<UploadTask> getNextTask()
+	public Seq<UploadTask> claimNextTasks(String owner, Instant leaseTime, int maxResults)
 	{
-		return Option.of(queryFactory.select(uploadTaskProjection)
+		val now = Instant.now();
+		return skipLocked ? claimNextTasksSkipLocked(owner,leaseTime,maxResults,now) : claimNextTasksOptimistic(owner,leaseTime,maxResults,now);
+	}
+
+	private Seq<UploadTask> claimNextTasksSkipLocked(String owner, Instant leaseTime, int maxResults, Instant now)
+	{
+		val query = queryFactory.select(uploadTaskProjection)
+				.from(table)
+				.where(isClaimable(now))
+				.orderBy(table.scheduleTime.asc())
+				.limit(maxResults)
+				.forUpdate();
+		query.addFlag(Position.END," skip locked");
+		val result = List.ofAll(query.fetch());
+		if (!result.isEmpty())
+			queryFactory.update(table)
+					.set(table.status,UploadStatus.RUNNING)
+					.set(table.owner,owner)
+					.set(table.leaseTime,leaseTime)
+					.where(table.fileId.in(result.map(t -> t.getFileId()).asJava()))
+					.execute();
+		return result.map(t -> t.withStatus(UploadStatus.RUNNING));
+	}
+
+	private Seq<UploadTask> claimNextTasksOptimistic(String owner, Instant leaseTime, int maxResults, Instant now)
+	{
+		return List.ofAll(queryFactory.select(uploadTaskProjection)
 				.from(table)
-				.where(table.scheduleTime.before(Instant.now())
-						.and(table.status.eq(UploadStatus.CREATED)))
+				.where(isClaimable(now))
 				.orderBy(table.scheduleTime.asc())
-				.fetchFirst());
+				.limit(maxResults)
+				.fetch())
+				.filter(t -> queryFactory.update(table)
+						.set(table.status,UploadStatus.RUNNING)
+						.set(table.owner,owner)
+						.set(table.leaseTime,leaseTime)
+						.where(table.fileId.eq(t.getFileId())
+								.and(isClaimable(now)))
+						.execute() > 0)
+				.map(t -> t.withStatus(UploadStatus.RUNNING));
+	}
+
+	@Override
+	public Option<UploadTask> claimTask(String owner, long fileId, Instant leaseTime)
+	{
+		val claimed = queryFactory.update(table)
+				.set(table.status,UploadStatus.RUNNING)
+				.set(table.owner,owner)
+				.set(table.leaseTime,leaseTime)
+				.where(table.fileId.eq(fileId)
+						.and(isClaimable(Instant.now())))
+				.execute() > 0;
+		return claimed ? getTask(fileId) : Option.none();
+	}
+
+	private Predicate isClaimable(Instant now)
+	{
+		return table.status.eq(UploadStatus.CREATED).and(table.scheduleTime.before(now))
+				.or(table.status.eq(UploadStatus.RUNNING).and(table.leaseTime.isNull().or(table.leaseTime.before(now))));
+	}
+
+	@Override
+	public long renewLeases(String owner, Seq<Long> fileIds, Instant leaseTime)
+	{
+		return fileIds.isEmpty() ? 0 : queryFactory.update(table)
+				.set(table.leaseTime,leaseTime)
+				.where(table.fileId.in(fileIds.asJava())
+						.and(table.status.eq(UploadStatus.RUNNING))
+						.and(table.owner.eq(owner)))
+				.execute();
+	}
+
+	@Override
+	public Seq<Tuple2<Long,Instant>> getScheduledTasks(Instant until, int maxResults)
+	{
+		val scheduled = List.ofAll(queryFactory.select(table.fileId,table.scheduleTime)
+				.from(table)
+				.where(table.status.eq(UploadStatus.CREATED)
+						.and(table.scheduleTime.before(until)))
+				.orderBy(table.scheduleTime.asc())
+				.limit(maxResults)
+				.fetch())
+				.map(t -> Tuple.of(t.get(table.fileId),t.get(table.scheduleTime)));
+		// running tasks become claimable again when their lease expires
+		val leased = List.ofAll(queryFactory.select(table.fileId,table.leaseTime)
+				.from(table)
+				.where(table.status.eq(UploadStatus.RUNNING)
+						.and(table.leaseTime.isNull().or(table.leaseTime.before(until))))
+				.orderBy(table.leaseTime.asc())
+				.limit(maxResults)
+				.fetch())
+				.map(t -> Tuple.of(t.get(table.fileId),Option.of(t.get(table.leaseTime)).getOrElse(Instant.EPOCH)));
+		return scheduled.appendAll(leased).sortBy(Tuple2::_2).take(maxResults);
+	}
+
+	@Override
+	public Option<Instant> getNextScheduleTime()
+	{
+		return Option.of(queryFactory.select(table.scheduleTime.min())
+				.from(table)
+				.where(table.status.eq(UploadStatus.CREATED))
+				.fetchOne());
 	}
 
 	@Override
@@ -82,6 +188,26 @@ class UploadTaskDAOImpl implements UploadTaskDAO
 				.fetch());
 	}
 
+	@Override
+	public Seq<UploadTask> getTasks(List<UploadStatus> statuses, Long afterFileId, Instant from, Instant to, int maxResults)
+	{
+		val where = new BooleanBuilder();
+		if (!statuses.isEmpty())
+			where.and(table.status.in(statuses.asJava()));
+		if (afterFileId != null)
+			where.and(table.fileId.gt(afterFileId));
+		if (from != null)
+			where.and(table.timestamp.goe(from));
+		if (to != null)
+			where.and(table.timestamp.lt(to));
+		return List.ofAll(queryFactory.select(uploadTaskProjection)
+				.from(table)
+				.where(where)
+				.orderBy(table.fileId.asc())
+				.limit(maxResults)
+				.fetch());
+	}
+
 	@Override
 	public UploadTask insert(UploadTask task)
 	{
@@ -98,13 +224,31 @@ class UploadTaskDAOImpl implements UploadTaskDAO
 	}
 
 	@Override
-	public long update(UploadTask task)
+	public long update(String owner, UploadTask task)
 	{
 		return queryFactory.update(table)
+				.setNull(table.owner)
+				.setNull(table.leaseTime)
 				.set(table.status,task.getStatus())
+				.set(table.statusTime,task.getStatusTime())
 				.set(table.scheduleTime,task.getScheduleTime())
 				.set(table.retries,task.getRetries())
-				.where(table.fileId.eq(task.getFileId()))
+				.where(table.fileId.eq(task.getFileId())
+						.and(table.status.eq(UploadStatus.RUNNING))
+						.and(table.owner.eq(owner)))
+				.execute();
+	}
+
+	@Override
+	public long restart(long fileId, Instant scheduleTime)
+	{
+		return queryFactory.update(table)
+				.setNull(table.uploadUrl)
+				.setNull(table.uploadFingerprint)
+				.set(table.status,UploadStatus.CREATED)
+				.set(table.scheduleTime,scheduleTime)
+				.where(table.fileId.eq(fileId)
+						.and(table.status.in(UploadStatus.CREATED,UploadStatus.FAILED)))
 				.execute();
 	}
 
@@ -115,4 +259,46 @@ class UploadTaskDAOImpl implements UploadTaskDAO
 				.where(table.fileId.eq(fileId))
 				.execute();
 	}
+
+	@Override
+	public Seq<UploadPart> getParts(long fileId)
+	{
+		return List.ofAll(queryFactory.select(uploadPartProjection)
+				.from(partTable)
+				.where(partTable.fileId.eq(fileId))
+				.orderBy(partTable.firstByte.asc())
+				.fetch());
+	}
+
+	@Override
+	public UploadPart insertPart(UploadPart part)
+	{
+		queryFactory.insert(partTable)
+				.set(partTable.fileId,part.getFileId())
+				.set(partTable.firstByte,part.getFirstByte())
+				.set(partTable.lastByte,part.getLastByte())
+				.set(partTable.nextByte,part.getNextByte())
+				.set(partTable.url,part.getUrl())
+				.execute();
+		return part;
+	}
+
+	@Override
+	public long updatePart(UploadPart part)
+	{
+		return queryFactory.update(partTable)
+				.set(partTable.nextByte,part.getNextByte())
+				.set(partTable.url,part.getUrl())
+				.where(partTable.fileId.eq(part.getFileId())
+						.and(partTable.firstByte.eq(part.getFirstByte())))
+				.execute();
+	}
+
+	@Override
+	public long deleteParts(long fileId)
+	{
+		return queryFactory.delete(partTable)
+				.where(partTable.fileId.eq(fileId))
+				.execute();
+	}
 }
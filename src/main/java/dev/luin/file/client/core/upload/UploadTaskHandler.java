@@ -16,20 +16,42 @@
 package dev.luin.file.client.core.upload;
 
 import java.io.IOException;
+import java.net.URL;
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.regex.Pattern;
 
-import org.springframework.scheduling.annotation.Scheduled;
+import org.apache.commons.lang3.StringUtils;
+
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
 
 import dev.luin.file.client.core.file.FSFile;
 import dev.luin.file.client.core.file.FileSystem;
+import dev.luin.file.client.core.file.MissingFileException;
+import dev.luin.file.client.core.http.BandwidthLimiter;
+import dev.luin.file.client.core.http.CompressionStatistics;
+import dev.luin.file.client.core.http.ContentEncoding;
+import dev.luin.file.client.core.http.HttpConnectionFactory;
+import dev.luin.file.client.core.task.HostGuard;
+import dev.luin.file.client.core.task.RetryPolicy;
+import dev.luin.file.client.core.task.TaskDispatcher;
+import dev.luin.file.client.core.task.TaskExecutor;
+import dev.luin.file.client.core.task.TaskNotifier;
 import io.tus.java.client.ProtocolException;
 import io.tus.java.client.TusExecutor;
 import io.tus.java.client.TusUpload;
 import io.tus.java.client.TusUploader;
+import io.vavr.Function0;
+import io.vavr.Function1;
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
 import io.vavr.control.Try;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.val;
 import lombok.experimental.FieldDefaults;
@@ -37,57 +59,159 @@ import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
-@AllArgsConstructor
-public class UploadTaskHandler
+public class UploadTaskHandler implements AutoCloseable
 {
 	@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 	@AllArgsConstructor
-	private static class UploadTaskExecutor extends TusExecutor
+	private static class UploadTaskExecutor extends TaskExecutor
 	{
 		@NonNull
-		SSLFactoryManager sslFactoryManager;
+		HttpConnectionFactory connectionFactory;
+		@NonNull
+		HostGuard hostGuard;
+		@NonNull
+		BandwidthLimiter bandwidthLimiter;
+		@NonNull
+		CompressionStatistics compressionStatistics;
 		@NonNull
 		FileSystem fs;
 		@NonNull
 		UploadTaskManager uploadTaskManager;
 		@NonNull
 		UploadTask task;
+		@NonNull
+		@Getter(AccessLevel.PROTECTED)
+		RetryPolicy retryPolicy;
+		long relayPollInterval;
+		long relayTimeout;
+		@NonNull
+		Function0<ChunkSizeController> createChunkSizeController;
+		int parts;
+		long minPartSize;
+		boolean compressed;
 
 		@Override
 		protected void makeAttempt() throws ProtocolException, IOException
 		{
-			val file = fs.findFile(task.getFileId()).getOrElseThrow(() -> new IllegalStateException("File " + task.getFileId() + " not found"));
+			val file = fs.findFile(task.getFileId()).getOrElseThrow(() -> new MissingFileException("File " + task.getFileId() + " not found"));
+			if (file.isCompleted() && compressed)
+			{
+				uploadCompressed(file);
+				return;
+			}
+			if (file.isCompleted())
+			{
+				val fileParts = uploadTaskManager.getParts(task.getFileId());
+				if (!fileParts.isEmpty())
+				{
+					uploadParts(file,fileParts);
+					return;
+				}
+				val partCount = getPartCount(file.getLength());
+				if (partCount > 1 && ConcatenatedUpload.isSupported(connectionFactory,task.getCreationUrl()))
+				{
+					uploadParts(file,uploadTaskManager.createParts(task.getFileId(),file.getLength(),partCount));
+					return;
+				}
+			}
+			log.info(file.isCompleted() ? "Uploading {}" : "Relaying {}",file);
+			upload(file,createUpload(file));
+		}
+
+		private void uploadCompressed(final FSFile file) throws ProtocolException, IOException
+		{
+			// the encoded file is kept for the next attempt, so an interrupted upload resumes at its offset in the same encoded bytes
+			val encodedFile = fs.encodeFile(file);
+			log.info("Uploading {} compressed",file);
+			val upload = createUpload(file,new TusUpload(encodedFile));
+			// the offsets of the encoded upload do not apply to the file itself
+			upload.setFingerprint(task.getFileId() + "." + ContentEncoding.GZIP);
+			upload.getMetadata().put("Content-Encoding",ContentEncoding.GZIP);
+			upload(file,upload);
+			compressionStatistics.recordUpload(file.getLength(),encodedFile.length());
+			fs.deleteEncodedFile(file);
+		}
+
+		private void upload(final FSFile file, final TusUpload upload) throws ProtocolException, IOException
+		{
 			val client = createClient();
-			val upload = createUpload(file);
-			log.info("Uploading {}",file);
-			val uploader = client.resumeOrCreateUpload(upload);
-			do
+			try
 			{
-				if (log.isDebugEnabled())
-					log.debug("Upload {} at {}%",file,getProgress(upload,uploader));
-			} while (uploader.uploadChunk() > -1);
-			val newFile = file.withUrl(uploader.getUploadURL());
+				val uploader = client.resumeOrCreateUpload(upload);
+				val chunkSizeController = createChunkSizeController.apply();
+				do
+				{
+					if (log.isDebugEnabled())
+						log.debug("Upload {} at {}%",file,getProgress(upload,uploader));
+				} while (chunkSizeController.uploadChunk(uploader) > -1);
+				// a relayed file has been updated by the download in the meantime
+				val newFile = fs.findFile(task.getFileId()).getOrElse(file).withUrl(uploader.getUploadURL());
+				fs.updateFile(newFile);
+				uploader.finish();
+				log.info("Uploaded {}",newFile);
+			}
+			finally
+			{
+				upload.getInputStream().close();
+			}
+		}
+
+		private void uploadParts(final FSFile file, final Seq<UploadPart> fileParts) throws ProtocolException, IOException
+		{
+			log.info("Uploading {} in {} parts",file,fileParts.size());
+			val connections = hostGuard.acquireConnections(task.getCreationUrl(),fileParts.size() - 1);
+			final URL url;
+			try
+			{
+				url = new ConcatenatedUpload(connectionFactory,uploadTaskManager,task.getCreationUrl(),file,createMetaData(file),createChunkSizeController,bandwidthLimiter.createThrottle(task.getCreationUrl())).upload(fileParts,1 + connections);
+			}
+			finally
+			{
+				hostGuard.releaseConnections(task.getCreationUrl(),connections);
+			}
+			val newFile = file.withUrl(url);
 			fs.updateFile(newFile);
-			uploader.finish();
+			uploadTaskManager.deleteParts(task.getFileId());
 			log.info("Uploaded {}",newFile);
 		}
 
+		private int getPartCount(final long length)
+		{
+			if (parts <= 1)
+				return 1;
+			return (int)Math.max(1,Math.min(parts,length / Math.max(1,minPartSize)));
+		}
+
 		private Client createClient()
 		{
-			val client = new Client(sslFactoryManager.getSslSocketFactory());
+			val client = new Client(connectionFactory);
 			client.setUploadCreationURL(task.getCreationUrl());
 			client.enableResuming(uploadTaskManager);
+			client.enableRemoveFingerprintOnSuccess();
 			return client;
 		}
 
-		private io.tus.java.client.TusUpload createUpload(final dev.luin.file.client.core.file.FSFile file)
+		private io.tus.java.client.TusUpload createUpload(final dev.luin.file.client.core.file.FSFile file) throws IOException
+		{
+			return createUpload(file,file.isCompleted() ? Try.of(() -> new TusUpload(file.getFile())).get() : createRelayUpload(file));
+		}
+
+		private TusUpload createUpload(final FSFile file, final TusUpload upload)
 		{
-			val upload = Try.of(() -> new TusUpload(file.getFile())).get();
+			upload.setInputStream(bandwidthLimiter.createThrottle(task.getCreationUrl()).throttle(upload.getInputStream()));
 			upload.setFingerprint(task.getFileId().toString());
 			upload.setMetadata(createMetaData(file));
 			return upload;
 		}
 
+		private TusUpload createRelayUpload(final FSFile file) throws IOException
+		{
+			val result = new TusUpload();
+			result.setSize(file.getLength());
+			result.setInputStream(new RelayInputStream(fs,file,relayPollInterval,relayTimeout));
+			return result;
+		}
+
 		private Map<String,String> createMetaData(FSFile file)
 		{
 			val result = new HashMap<String,String>();
@@ -105,46 +229,171 @@ public class UploadTaskHandler
 	}
 
 	@NonNull
-	SSLFactoryManager sslFactoryManager;
+	HttpConnectionFactory connectionFactory;
+	@NonNull
+	BandwidthLimiter bandwidthLimiter;
+	@NonNull
+	CompressionStatistics compressionStatistics;
 	@NonNull
 	FileSystem fs;
 	@NonNull
 	UploadTaskManager uploadTaskManager;
-	int maxRetries;
+	@NonNull
+	RetryPolicy retryPolicy;
+	long relayPollInterval;
+	long relayTimeout;
+	long relayStartDelay;
+	@NonNull
+	Function1<Long,Boolean> isDownloading;
+	int minChunkSize;
+	int maxChunkSize;
+	int minPayloadSize;
+	int maxPayloadSize;
+	@NonNull
+	UploadStatistics uploadStatistics;
+	int parts;
+	long minPartSize;
+	Option<Pattern> compressionUrlPattern;
+	@NonNull
+	HostGuard hostGuard;
+	@NonNull
+	TaskDispatcher<UploadTask> dispatcher;
+
+	@Builder
+	public UploadTaskHandler(
+			@NonNull HttpConnectionFactory connectionFactory,
+			@NonNull BandwidthLimiter bandwidthLimiter,
+			@NonNull CompressionStatistics compressionStatistics,
+			@NonNull FileSystem fs,
+			@NonNull UploadTaskManager uploadTaskManager,
+			@NonNull RetryPolicy retryPolicy,
+			long relayPollInterval,
+			long relayTimeout,
+			long relayStartDelay,
+			@NonNull Function1<Long,Boolean> isDownloading,
+			int minChunkSize,
+			int maxChunkSize,
+			int minPayloadSize,
+			int maxPayloadSize,
+			@NonNull UploadStatistics uploadStatistics,
+			int parts,
+			long minPartSize,
+			String compressionUrlPattern,
+			@NonNull HostGuard hostGuard,
+			@NonNull TaskNotifier taskNotifier,
+			int concurrency,
+			long shutdownTimeout,
+			long delay,
+			long maxDelay)
+	{
+		this.connectionFactory = connectionFactory;
+		this.bandwidthLimiter = bandwidthLimiter;
+		this.compressionStatistics = compressionStatistics;
+		this.fs = fs;
+		this.uploadTaskManager = uploadTaskManager;
+		this.retryPolicy = retryPolicy;
+		this.relayPollInterval = relayPollInterval;
+		this.relayTimeout = relayTimeout;
+		this.relayStartDelay = relayStartDelay;
+		this.isDownloading = isDownloading;
+		this.minChunkSize = minChunkSize;
+		this.maxChunkSize = maxChunkSize;
+		this.minPayloadSize = minPayloadSize;
+		this.maxPayloadSize = maxPayloadSize;
+		this.uploadStatistics = uploadStatistics;
+		this.parts = parts;
+		this.minPartSize = minPartSize;
+		this.compressionUrlPattern = Option.of(compressionUrlPattern).filter(StringUtils::isNotBlank).map(Pattern::compile);
+		this.hostGuard = hostGuard;
+		this.dispatcher = TaskDispatcher.<UploadTask>builder()
+				.name("uploadTaskHandler")
+				.concurrency(concurrency)
+				.shutdownTimeout(shutdownTimeout)
+				.delay(delay)
+				.maxDelay(maxDelay)
+				.getId(UploadTask::getFileId)
+				.getNextTasks(uploadTaskManager::claimNextTasks)
+				.getNextScheduleTime(uploadTaskManager::getNextScheduleTime)
+				.renewLeases(uploadTaskManager::renewLeases)
+				.handler(t -> Try.of(() -> handle(t)).onFailure(e -> log.error("",e)))
+				.acquire(this::acquire)
+				.release(t -> hostGuard.release(t.getCreationUrl()))
+				.requeue(t -> uploadTaskManager.createDelayedTask(t,Instant.now()))
+				.build();
+		// the schedule does not contain the tasks of other nodes until it is reloaded
+		taskNotifier.addRemoteListener(UploadTaskManager.TASK_CHANNEL,uploadTaskManager::invalidateSchedule);
+		taskNotifier.addListener(UploadTaskManager.TASK_CHANNEL,dispatcher::wakeUp);
+	}
+
+	@EventListener(ContextRefreshedEvent.class)
+	public void start()
+	{
+		fs.whenReconciled(dispatcher::start);
+	}
 
-	@Scheduled(fixedDelayString = "${uploadTaskHandler.delay}")
-	public void run()
+	@Override
+	public void close()
 	{
-		val task = uploadTaskManager.getNextTask();
-		task.map(t -> Try.of(() -> handle(t)).onFailure(e -> log.error("",e)));
+		dispatcher.close();
 	}
 
 	private UploadTask handle(UploadTask task) throws ProtocolException, IOException
 	{
 		log.info("Start task {}",task);
-		val executor = new UploadTaskExecutor(sslFactoryManager,fs,uploadTaskManager,task);
+		val file = fs.findFile(task.getFileId());
+		if (file.exists(f -> !f.isCompleted()) && !isDownloading.apply(task.getFileId()))
+		{
+			// the download of the relayed file has failed or has been deleted, so the file will never be completed
+			val newTask = uploadTaskManager.createFailedTask(task);
+			log.warn("Download of relayed file {} is not running, failed task {}",task.getFileId(),newTask);
+			return newTask;
+		}
+		if (file.exists(f -> !f.isCompleted() && f.getLength() == null))
+		{
+			// the download of a relayed file has not started yet
+			val newTask = uploadTaskManager.createDelayedTask(task,Instant.now().plusMillis(relayStartDelay));
+			log.info("Postponed task {}",newTask);
+			return newTask;
+		}
+		val executor = new UploadTaskExecutor(connectionFactory,hostGuard,bandwidthLimiter,compressionStatistics,fs,uploadTaskManager,task,retryPolicy,relayPollInterval,relayTimeout,this::createChunkSizeController,parts,minPartSize,isCompressed(task));
 		val newTask = handleTask(executor,task);
 		log.info("Finished task {}",newTask);
 		return newTask;
 	}
 
+	private boolean isCompressed(UploadTask task)
+	{
+		return compressionUrlPattern.exists(p -> p.matcher(task.getCreationUrl().toString()).matches());
+	}
+
+	private ChunkSizeController createChunkSizeController()
+	{
+		return new ChunkSizeController(minChunkSize,maxChunkSize,minPayloadSize,maxPayloadSize,uploadStatistics);
+	}
+
+	private boolean acquire(UploadTask task)
+	{
+		if (hostGuard.tryAcquire(task.getCreationUrl()))
+			return true;
+		// hand the task back, it is picked up again when the host has room or its circuit is half-open
+		uploadTaskManager.createDelayedTask(task,hostGuard.getAvailableTime(task.getCreationUrl()));
+		return false;
+	}
+
 	private UploadTask handleTask(TusExecutor executor, UploadTask task)
 	{
 		try
 		{
 			if (!executor.makeAttempts())
-			{
-				if (task.getRetries() < maxRetries)
-					return uploadTaskManager.createNextTask(task);
-				else
-					return uploadTaskManager.createFailedTask(task);
-			}
-			else
-				return uploadTaskManager.createSucceededTask(task);
+				return uploadTaskManager.createNextTask(task,null);
+			hostGuard.onSuccess(task.getCreationUrl());
+			return uploadTaskManager.createSucceededTask(task);
 		}
 		catch (Exception e)
 		{
-			return uploadTaskManager.createNextTask(task);
+			log.warn("Task {} failed",task.getFileId(),e);
+			hostGuard.onFailure(task.getCreationUrl(),e);
+			return uploadTaskManager.createNextTask(task,e);
 		}
 	}
 }
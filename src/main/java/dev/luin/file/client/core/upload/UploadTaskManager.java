@@ -16,10 +16,13 @@
 package dev.luin.file.client.core.upload;
 
 import java.net.URL;
-import java.time.Duration;
 import java.time.Instant;
 
 import io.tus.java.client.TusURLStore;
+import dev.luin.file.client.core.task.RetryPolicy;
+import dev.luin.file.client.core.task.TaskNotifier;
+import dev.luin.file.client.core.task.TaskSchedule;
+import dev.luin.file.client.core.transaction.TransactionUtils;
 import io.vavr.collection.List;
 import io.vavr.collection.Seq;
 import io.vavr.control.Option;
@@ -28,26 +31,72 @@ import lombok.AllArgsConstructor;
 import lombok.NonNull;
 import lombok.val;
 import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
 
+@Slf4j
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @AllArgsConstructor
 public class UploadTaskManager implements TusURLStore
 {
+	public static final String TASK_CHANNEL = "upload_task";
+	// the schedule holds a few claim batches, so a large backlog is loaded in pieces
+	private static final int SCHEDULE_BATCHES = 4;
 	@NonNull
 	UploadTaskDAO uploadTaskDAO;
 	@NonNull
-	TusURLStore tusDAO;
-	int retryInterval;
-	int retryMaxMultiplier;
+	UploadURLStore tusDAO;
+	@NonNull
+	RetryPolicy retryPolicy;
+	@NonNull
+	String owner;
+	long leaseDuration;
+	long scheduleWindow;
+	long scheduleRefresh;
+	@NonNull
+	TaskNotifier taskNotifier;
+	TaskSchedule schedule = new TaskSchedule();
 
 	public Option<UploadTask> getTask(long fileId)
 	{
 		return uploadTaskDAO.getTask(fileId);
 	}
 
-	public Option<UploadTask> getNextTask()
+	public Seq<UploadTask> claimNextTasks(int maxResults)
 	{
-		return uploadTaskDAO.getNextTask();
+		if (scheduleWindow <= 0)
+			return uploadTaskDAO.claimNextTasks(owner,Instant.now().plusMillis(leaseDuration),maxResults);
+		val now = Instant.now();
+		refreshSchedule(now,maxResults);
+		return schedule.pollDue(now,maxResults)
+				.flatMap(id -> uploadTaskDAO.claimTask(owner,id,Instant.now().plusMillis(leaseDuration)));
+	}
+
+	private void refreshSchedule(Instant now, int batchSize)
+	{
+		if (schedule.isExpired(now))
+		{
+			val until = now.plusMillis(scheduleWindow);
+			val maxResults = batchSize * SCHEDULE_BATCHES;
+			schedule.startRefresh();
+			val entries = uploadTaskDAO.getScheduledTasks(until,maxResults);
+			// a truncated schedule only covers the window up to its last entry
+			schedule.refresh(entries,entries.size() < maxResults ? until : entries.last()._2,now.plusMillis(scheduleRefresh));
+		}
+	}
+
+	public void invalidateSchedule()
+	{
+		schedule.invalidate();
+	}
+
+	public Option<Instant> getNextScheduleTime()
+	{
+		return scheduleWindow > 0 ? Option.some(schedule.getNextTime()) : uploadTaskDAO.getNextScheduleTime();
+	}
+
+	public boolean renewLeases(Seq<Long> fileIds)
+	{
+		return uploadTaskDAO.renewLeases(owner,fileIds,Instant.now().plusMillis(leaseDuration)) > 0;
 	}
 
 	public Seq<UploadTask> getTasks(List<UploadStatus> statuses)
@@ -55,43 +104,128 @@ public class UploadTaskManager implements TusURLStore
 		return statuses.length() == 0 ? uploadTaskDAO.getTasks() : uploadTaskDAO.getTasks(statuses);
 	}
 
+	public Seq<UploadTask> getTasks(List<UploadStatus> statuses, Long afterFileId, Instant from, Instant to, int maxResults)
+	{
+		return uploadTaskDAO.getTasks(statuses,afterFileId,from,to,maxResults);
+	}
+
 	public UploadTask createTask(long fileId, String creationUrl)
 	{
-		val task = UploadTask.of(fileId,creationUrl);
-		return uploadTaskDAO.insert(task);
+		return createTask(fileId,creationUrl,null);
 	}
 
-	public UploadTask createNextTask(UploadTask task)
+	public UploadTask createTask(long fileId, String creationUrl, Instant startDate)
 	{
-		int retries = task.getRetries() + 1;
-		val result = task
-				.withScheduleTime(task.getScheduleTime().plus(Duration.ofMinutes((retries > retryMaxMultiplier ? retryMaxMultiplier : retries) * retryInterval)))
-				.withRetries(retries);
-		uploadTaskDAO.update(result);
+		val task = UploadTask.of(fileId,creationUrl,startDate);
+		val result = uploadTaskDAO.insert(task);
+		updateSchedule(result);
+		taskNotifier.signal(TASK_CHANNEL);
 		return result;
 	}
 
+	public UploadTask createNextTask(UploadTask task, Throwable cause)
+	{
+		val retries = task.getRetries() + 1;
+		val result = retryPolicy.getDelay(retries,cause)
+				.map(d -> task
+						.withStatus(UploadStatus.CREATED)
+						.withScheduleTime(Instant.now().plus(d))
+						.withRetries(retries))
+				.getOrElse(task.withStatus(UploadStatus.FAILED)
+						.withStatusTime(Instant.now()));
+		return update(result);
+	}
+
+	public UploadTask createDelayedTask(UploadTask task, Instant scheduleTime)
+	{
+		val result = task
+				.withStatus(UploadStatus.CREATED)
+				.withScheduleTime(scheduleTime);
+		return update(result);
+	}
+
 	public UploadTask createSucceededTask(UploadTask task)
 	{
 		val result = task.withStatus(UploadStatus.SUCCEEDED)
 				.withStatusTime(Instant.now());
-		uploadTaskDAO.update(result);
-		return result;
+		return update(result);
 	}
 
 	public UploadTask createFailedTask(UploadTask task)
 	{
 		val result = task.withStatus(UploadStatus.FAILED)
 				.withStatusTime(Instant.now());
-		uploadTaskDAO.update(result);
-		return result;
+		return update(result);
+	}
+
+	private UploadTask update(UploadTask task)
+	{
+		if (uploadTaskDAO.update(owner,task) == 0)
+		{
+			// the lease has expired and the task has been claimed by another node or deleted in the meantime
+			log.warn("Lost lease of task {}, dropped status {}",task.getFileId(),task.getStatus());
+			return uploadTaskDAO.getTask(task.getFileId()).getOrElse(task);
+		}
+		updateSchedule(task);
+		return task;
+	}
+
+	private void updateSchedule(UploadTask task)
+	{
+		if (scheduleWindow > 0)
+			TransactionUtils.afterCommit(() ->
+			{
+				if (task.getStatus() == UploadStatus.CREATED)
+					schedule.add(task.getFileId(),task.getScheduleTime());
+				else
+					schedule.remove(task.getFileId());
+			});
+	}
+
+	/**
+	 * Restarts the upload of a relayed file from the start, because the download of the file has to start over. A running or succeeded upload can not be restarted.
+	 */
+	public boolean restartTask(long fileId)
+	{
+		if (uploadTaskDAO.restart(fileId,Instant.now()) == 0)
+			return false;
+		tusDAO.removeAll(fileId);
+		uploadTaskDAO.deleteParts(fileId);
+		uploadTaskDAO.getTask(fileId).forEach(this::updateSchedule);
+		log.info("Restarted task {}",fileId);
+		return true;
 	}
 
 	public boolean deleteTask(long fileId)
 	{
+		TransactionUtils.afterCommit(() -> schedule.remove(fileId));
+		tusDAO.removeAll(fileId);
+		uploadTaskDAO.deleteParts(fileId);
 		return uploadTaskDAO.delete(fileId) > 0;
 	}
 
+	public Seq<UploadPart> getParts(long fileId)
+	{
+		return uploadTaskDAO.getParts(fileId);
+	}
+
+	public Seq<UploadPart> createParts(long fileId, long length, int count)
+	{
+		return UploadPart.of(fileId,length,count)
+				.map(p -> uploadTaskDAO.insertPart(p));
+	}
+
+	public UploadPart updatePart(UploadPart part)
+	{
+		uploadTaskDAO.updatePart(part);
+		return part;
+	}
+
+	public boolean deleteParts(long fileId)
+	{
+		return uploadTaskDAO.deleteParts(fileId) > 0;
+	}
+
 	@Override
 	public void set(String id, URL url)
 	{
@@ -0,0 +1,26 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.upload;
+
+import io.tus.java.client.TusURLStore;
+
+/**
+ * Store of upload URLs by fingerprint. A file can have an upload URL under more than one fingerprint, one for each content encoding.
+ */
+public interface UploadURLStore extends TusURLStore
+{
+	void removeAll(long fileId);
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.datasource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import dev.luin.file.client.core.download.DownloadStatus;
+import dev.luin.file.client.core.download.DownloadTaskDAOImpl;
+import lombok.val;
+
+/**
+ * Checks that the scheduler queries are served by an index when the task tables contain a large history of finished tasks.
+ * The number of historical rows can be raised with -Dbenchmark.rows=1000000.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+class TaskIndexesTest
+{
+	private static final int HISTORY = Integer.getInteger("benchmark.rows",100_000);
+	private static final int DUE = 50;
+	private TestDatabase db;
+
+	@BeforeAll
+	void init() throws SQLException
+	{
+		db = TestDatabase.create("taskIndexes");
+		val now = Instant.now();
+		insertTasks(0,HISTORY,DownloadStatus.SUCCEEDED,now.minus(Duration.ofDays(30)),null);
+		insertTasks(HISTORY,DUE,DownloadStatus.CREATED,now.minusSeconds(60),null);
+		insertTasks(HISTORY + DUE,DUE,DownloadStatus.RUNNING,now.minusSeconds(60),now.minusSeconds(1));
+	}
+
+	@AfterAll
+	void destroy() throws SQLException
+	{
+		db.close();
+	}
+
+	@Test
+	void scheduledTasksUseStatusIndex() throws SQLException
+	{
+		assertIndexScan("SELECT file_id FROM download_task WHERE status = 0 AND schedule_time < CURRENT_TIMESTAMP ORDER BY schedule_time","DOWNLOAD_TASK_STATUS_IDX");
+		assertIndexScan("SELECT file_id FROM upload_task WHERE status = 0 AND schedule_time < CURRENT_TIMESTAMP ORDER BY schedule_time","UPLOAD_TASK_STATUS_IDX");
+	}
+
+	@Test
+	void expiredLeasesUseIndex() throws SQLException
+	{
+		// HSQLDB only ranks indexes by their equality columns, other databases choose the (status,lease_time) index here
+		assertIndexScan("SELECT file_id FROM download_task WHERE status = 3 AND (lease_time IS NULL OR lease_time < CURRENT_TIMESTAMP)","DOWNLOAD_TASK_");
+		assertIndexScan("SELECT file_id FROM upload_task WHERE status = 3 AND (lease_time IS NULL OR lease_time < CURRENT_TIMESTAMP)","UPLOAD_TASK_");
+	}
+
+	@Test
+	void taskListUsesScheduleIndex() throws SQLException
+	{
+		assertTrue(explain("SELECT file_id FROM download_task ORDER BY schedule_time DESC").contains("index=DOWNLOAD_TASK_SCHEDULE_IDX"));
+		assertTrue(explain("SELECT file_id FROM upload_task ORDER BY schedule_time DESC").contains("index=UPLOAD_TASK_SCHEDULE_IDX"));
+	}
+
+	@Test
+	void claimIgnoresHistory()
+	{
+		val dao = new DownloadTaskDAOImpl(db.getQueryFactory(),false);
+		val scheduled = assertTimeout(Duration.ofSeconds(1),() -> dao.getScheduledTasks(Instant.now(),DUE));
+		assertEquals(DUE,scheduled.size());
+		assertEquals(2 * DUE,dao.getScheduledTasks(Instant.now(),4 * DUE).size());
+		val claimed = assertTimeout(Duration.ofSeconds(1),() -> dao.claimNextTasks("test",Instant.now().plusSeconds(60),DUE));
+		assertEquals(DUE,claimed.size());
+	}
+
+	private void assertIndexScan(String sql, String index) throws SQLException
+	{
+		val plan = explain(sql);
+		assertTrue(plan.contains("access=INDEX PRED"),plan);
+		assertTrue(plan.contains("index=" + index),plan);
+	}
+
+	private String explain(String sql) throws SQLException
+	{
+		try (val statement = db.getConnection().createStatement(); val resultSet = statement.executeQuery("EXPLAIN PLAN FOR " + sql))
+		{
+			val result = new StringBuilder();
+			while (resultSet.next())
+				result.append(resultSet.getString(1)).append('\n');
+			return result.toString();
+		}
+	}
+
+	private void insertTasks(int first, int count, DownloadStatus status, Instant scheduleTime, Instant leaseTime) throws SQLException
+	{
+		try (val file = db.getConnection().prepareStatement("INSERT INTO file (id,url,path,time_stamp) VALUES (?,?,?,?)");
+				val task = db.getConnection().prepareStatement("INSERT INTO download_task (file_id,url,time_stamp,status,status_time,schedule_time,retries,lease_time) VALUES (?,?,?,?,?,?,0,?)"))
+		{
+			val time = Timestamp.from(scheduleTime);
+			for (int id = first; id < first + count; id++)
+			{
+				val url = "http://localhost/file/" + id;
+				file.setInt(1,id);
+				file.setString(2,url);
+				file.setString(3,"file" + id);
+				file.setTimestamp(4,time);
+				file.addBatch();
+				task.setInt(1,id);
+				task.setString(2,url);
+				task.setTimestamp(3,time);
+				task.setInt(4,status.ordinal());
+				task.setTimestamp(5,time);
+				task.setTimestamp(6,time);
+				task.setTimestamp(7,leaseTime != null ? Timestamp.from(leaseTime) : null);
+				task.addBatch();
+				if (id % 10_000 == 0)
+				{
+					file.executeBatch();
+					task.executeBatch();
+				}
+			}
+			file.executeBatch();
+			task.executeBatch();
+		}
+	}
+}
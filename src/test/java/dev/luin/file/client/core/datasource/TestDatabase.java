@@ -0,0 +1,77 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.datasource;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.flywaydb.core.Flyway;
+
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.HSQLDBTemplates;
+import com.querydsl.sql.SQLQueryFactory;
+
+import dev.luin.file.client.core.datasource.DataSourceConfig.Location;
+import dev.luin.file.client.core.querydsl.DownloadStatusType;
+import dev.luin.file.client.core.querydsl.InstantType;
+import dev.luin.file.client.core.querydsl.UploadStatusType;
+import dev.luin.file.client.core.querydsl.UrlType;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.val;
+import lombok.experimental.FieldDefaults;
+
+/**
+ * In-memory HSQLDB database with all migrations applied, the queries run on a single auto-commit connection.
+ */
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@Getter
+public class TestDatabase implements AutoCloseable
+{
+	Connection connection;
+	SQLQueryFactory queryFactory;
+
+	public static TestDatabase create(String name) throws SQLException
+	{
+		val jdbcUrl = "jdbc:hsqldb:mem:" + name;
+		Flyway.configure()
+				.dataSource(jdbcUrl,"sa","")
+				.locations(Location.HSQLDB.getLocation())
+				.load()
+				.migrate();
+		val connection = DriverManager.getConnection(jdbcUrl,"sa","");
+		val configuration = new Configuration(HSQLDBTemplates.builder().build());
+		configuration.register(new InstantType(Types.TIMESTAMP));
+		configuration.register(new UrlType(Types.VARCHAR));
+		configuration.register(new UploadStatusType(Types.TINYINT));
+		configuration.register(new DownloadStatusType(Types.TINYINT));
+		return new TestDatabase(connection,new SQLQueryFactory(configuration,() -> connection));
+	}
+
+	@Override
+	public void close() throws SQLException
+	{
+		try (val statement = connection.createStatement())
+		{
+			statement.execute("SHUTDOWN");
+		}
+		connection.close();
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.file;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dev.luin.file.client.core.datasource.TestDatabase;
+import lombok.val;
+
+class FileSystemTest
+{
+	@TempDir
+	Path baseDir;
+	TestDatabase db;
+	FileSystem fs;
+
+	@BeforeEach
+	void init() throws SQLException
+	{
+		db = TestDatabase.create("fileSystem");
+		fs = createFileSystem(FileLayout.FLAT);
+	}
+
+	@AfterEach
+	void destroy() throws SQLException
+	{
+		db.close();
+	}
+
+	@Test
+	void legacyPartialFileIsNotCompleted() throws Exception
+	{
+		insertLegacyFile(1,10,100L);
+		val file = fs.findFile(1).get();
+		assertEquals(10,file.getFileLength());
+		assertFalse(file.isCompleted());
+		assertNotNull(file.getLastModified());
+		assertEquals(10,fs.findFile(1).get().getFileLength());
+	}
+
+	@Test
+	void legacyCompletedFileIsCompleted() throws Exception
+	{
+		insertLegacyFile(2,10,10L);
+		assertTrue(fs.findFile(2).get().isCompleted());
+	}
+
+	@Test
+	void reconcileCompletesGate() throws Exception
+	{
+		insertLegacyFile(3,5,null);
+		val started = new boolean[1];
+		fs.whenReconciled(() -> started[0] = true);
+		assertFalse(started[0]);
+		fs.reconcile(1);
+		assertTrue(started[0]);
+		assertEquals(5,fs.findFile(3).get().getFileLength());
+	}
+
+	@Test
+	void migrateLayoutKeepsRowPointingAtFile() throws Exception
+	{
+		insertLegacyFile(4,10,10L);
+		val sharded = createFileSystem(FileLayout.SHARDED);
+		sharded.migrateLayout(10);
+		val file = sharded.findFile(4).get();
+		assertEquals(FileLayout.SHARDED.resolve(baseDir.toString(),"file4").toString(),file.getPath());
+		assertTrue(file.getFile().exists());
+		assertFalse(Files.exists(baseDir.resolve("file4")));
+	}
+
+	@Test
+	void migrateLayoutRemovesLeftoverOfInterruptedMigration() throws Exception
+	{
+		insertLegacyFile(5,10,10L);
+		val target = FileLayout.SHARDED.resolve(baseDir.toString(),"file5");
+		Files.createDirectories(target.getParent());
+		Files.copy(baseDir.resolve("file5"),target);
+		try (val statement = db.getConnection().prepareStatement("UPDATE file SET path = ? WHERE id = 5"))
+		{
+			statement.setString(1,target.toString());
+			statement.executeUpdate();
+		}
+		createFileSystem(FileLayout.SHARDED).migrateLayout(10);
+		assertTrue(Files.exists(target));
+		assertFalse(Files.exists(baseDir.resolve("file5")));
+	}
+
+	private FileSystem createFileSystem(FileLayout layout)
+	{
+		return FileSystem.builder()
+				.fsFileDAO(new FSFileDAOImpl(db.getQueryFactory()))
+				.baseDir(baseDir.toString())
+				.filenameLength(32)
+				.layout(layout)
+				.build();
+	}
+
+	private void insertLegacyFile(long id, int bytes, Long length) throws IOException, SQLException
+	{
+		// a row as left by the V1.0.4 migration, without written length and modification time
+		val path = baseDir.resolve("file" + id);
+		Files.write(path,new byte[bytes]);
+		try (val statement = db.getConnection().prepareStatement("INSERT INTO file (id,path,time_stamp,length) VALUES (?,?,?,?)"))
+		{
+			statement.setLong(1,id);
+			statement.setString(2,path.toString());
+			statement.setTimestamp(3,Timestamp.from(Instant.now()));
+			statement.setObject(4,length);
+			statement.executeUpdate();
+		}
+	}
+}
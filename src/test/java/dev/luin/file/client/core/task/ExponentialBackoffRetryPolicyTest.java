@@ -0,0 +1,52 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import dev.luin.file.client.core.http.HttpException;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import lombok.val;
+
+class ExponentialBackoffRetryPolicyTest
+{
+	private final ExponentialBackoffRetryPolicy retryPolicy = ExponentialBackoffRetryPolicy.builder()
+			.maxAttempts(5)
+			.baseDelay(Duration.ofMinutes(1))
+			.maxDelay(Duration.ofMinutes(60))
+			.errorClassifier(new ErrorClassifier(HashSet.of(503),List.empty()))
+			.build();
+
+	@Test
+	void retryAfterIsUsed()
+	{
+		val delay = retryPolicy.getDelay(1,new HttpException(503,Duration.ofMinutes(5)));
+		assertEquals(Option.some(Duration.ofMinutes(5)),delay);
+	}
+
+	@Test
+	void retryAfterIsCappedByMaxDelay()
+	{
+		val delay = retryPolicy.getDelay(1,new HttpException(503,Duration.ofDays(365)));
+		assertEquals(Option.some(Duration.ofMinutes(60)),delay);
+	}
+}
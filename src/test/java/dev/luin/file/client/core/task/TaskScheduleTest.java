@@ -0,0 +1,141 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import dev.luin.file.client.core.datasource.TestDatabase;
+import dev.luin.file.client.core.download.DownloadStatus;
+import dev.luin.file.client.core.download.DownloadTask;
+import dev.luin.file.client.core.download.DownloadTaskDAOImpl;
+import dev.luin.file.client.core.download.DownloadTaskManager;
+import io.vavr.Tuple;
+import io.vavr.collection.List;
+import lombok.val;
+
+class TaskScheduleTest
+{
+	private static class RemoteTaskNotifier implements TaskNotifier
+	{
+		java.util.List<Runnable> remoteListeners = new ArrayList<>();
+
+		@Override
+		public void addListener(String channel, Runnable listener)
+		{
+		}
+
+		@Override
+		public void addRemoteListener(String channel, Runnable listener)
+		{
+			remoteListeners.add(listener);
+		}
+
+		@Override
+		public void signal(String channel)
+		{
+		}
+
+		void signalFromOtherNode()
+		{
+			remoteListeners.forEach(Runnable::run);
+		}
+	}
+
+	@Test
+	void refreshReplacesEntries()
+	{
+		val schedule = new TaskSchedule();
+		val now = Instant.now();
+		val entries = List.of(Tuple.of(1L,now.minusSeconds(2)),Tuple.of(2L,now.minusSeconds(1)));
+		schedule.refresh(entries,now.plusSeconds(60),now.plusSeconds(10));
+		schedule.refresh(entries,now.plusSeconds(60),now.plusSeconds(10));
+		assertEquals(2,schedule.size());
+		assertEquals(List.of(1L,2L),schedule.pollDue(now,10));
+		assertEquals(List.empty(),schedule.pollDue(now,10));
+	}
+
+	@Test
+	void refreshKeepsChangesMadeWhileLoading()
+	{
+		val schedule = new TaskSchedule();
+		val now = Instant.now();
+		schedule.refresh(List.empty(),now.plusSeconds(60),now.minusSeconds(1));
+		schedule.startRefresh();
+		schedule.add(3L,now.minusSeconds(1));
+		schedule.remove(1L);
+		schedule.refresh(List.of(Tuple.of(1L,now.minusSeconds(2)),Tuple.of(2L,now.minusSeconds(2))),now.plusSeconds(60),now.plusSeconds(10));
+		assertEquals(List.of(2L,3L),schedule.pollDue(now,10));
+	}
+
+	@Test
+	void truncatedRefreshExpiresAtLastEntry()
+	{
+		val schedule = new TaskSchedule();
+		val now = Instant.now();
+		schedule.refresh(List.of(Tuple.of(1L,now.minusSeconds(1))),now.minusSeconds(1),now.plusSeconds(10));
+		assertTrue(schedule.isExpired(now));
+		schedule.add(2L,now);
+		assertEquals(1,schedule.size());
+	}
+
+	@Test
+	void notificationOfOtherNodeReloadsSchedule() throws SQLException
+	{
+		try (val db = TestDatabase.create("taskSchedule"))
+		{
+			val notifier = new RemoteTaskNotifier();
+			val manager = new DownloadTaskManager(new DownloadTaskDAOImpl(db.getQueryFactory(),false),Mockito.mock(RetryPolicy.class),"node",60_000,300_000,60_000,notifier);
+			notifier.addRemoteListener(DownloadTaskManager.TASK_CHANNEL,manager::invalidateSchedule);
+			assertEquals(0,manager.claimNextTasks(10).size());
+			insertTask(db,1);
+			assertEquals(0,manager.claimNextTasks(10).size());
+			notifier.signalFromOtherNode();
+			assertEquals(List.of(1L),manager.claimNextTasks(10).map(DownloadTask::getFileId));
+		}
+	}
+
+	// inserts a task the way another node does, without updating the schedule of this node
+	private void insertTask(TestDatabase db, long id) throws SQLException
+	{
+		val time = Timestamp.from(Instant.now().minusSeconds(1));
+		try (val file = db.getConnection().prepareStatement("INSERT INTO file (id,url,path,time_stamp) VALUES (?,?,?,?)");
+				val task = db.getConnection().prepareStatement("INSERT INTO download_task (file_id,url,time_stamp,status,status_time,schedule_time,retries) VALUES (?,?,?,?,?,?,0)"))
+		{
+			val url = "http://localhost/file/" + id;
+			file.setLong(1,id);
+			file.setString(2,url);
+			file.setString(3,"file" + id);
+			file.setTimestamp(4,time);
+			file.executeUpdate();
+			task.setLong(1,id);
+			task.setString(2,url);
+			task.setTimestamp(3,time);
+			task.setInt(4,DownloadStatus.CREATED.ordinal());
+			task.setTimestamp(5,time);
+			task.setTimestamp(6,time);
+			task.executeUpdate();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2020 E.Luinstra
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.luin.file.client.core.upload;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import dev.luin.file.client.core.datasource.TestDatabase;
+import dev.luin.file.client.core.http.HttpConnectionFactory;
+import dev.luin.file.client.core.task.RetryPolicy;
+import dev.luin.file.client.core.task.TaskNotifier;
+import io.tus.java.client.TusUpload;
+import lombok.val;
+
+/**
+ * Checks that an upload is resumed from the upload URL stored in the database after a restart, instead of being created again.
+ * An encoded upload is stored under its own fingerprint.
+ */
+class TusResumeTest
+{
+	private static final long FILE_ID = 1;
+	private static final long OFFSET = 5;
+	private static final byte[] CONTENT = "0123456789".getBytes();
+	TestDatabase db;
+	HttpServer server;
+	List<String> requests = new CopyOnWriteArrayList<>();
+	ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+	@BeforeEach
+	void init() throws SQLException, IOException
+	{
+		db = TestDatabase.create("tusResume");
+		server = HttpServer.create(new InetSocketAddress("localhost",0),0);
+		server.createContext("/files",this::handle);
+		server.start();
+		insertFile();
+		insertTask();
+	}
+
+	@AfterEach
+	void destroy() throws SQLException
+	{
+		server.stop(0);
+		db.close();
+	}
+
+	@Test
+	void uploadResumesFromStoredUrl() throws Exception
+	{
+		val uploadUrl = new URL("http://localhost:" + server.getAddress().getPort() + "/files/" + FILE_ID);
+		new CachedTusURLStore(new TusUrlDAO(db.getQueryFactory())).set(String.valueOf(FILE_ID),uploadUrl);
+
+		// a new store and client, as created after a restart
+		val store = new CachedTusURLStore(new TusUrlDAO(db.getQueryFactory()));
+		val client = new Client(new HttpConnectionFactory(Mockito.mock(SSLFactoryManager.class)));
+		client.setUploadCreationURL(new URL("http://localhost:" + server.getAddress().getPort() + "/files"));
+		client.enableResuming(store);
+		val upload = new TusUpload();
+		upload.setSize(CONTENT.length);
+		upload.setInputStream(new ByteArrayInputStream(CONTENT));
+		upload.setFingerprint(String.valueOf(FILE_ID));
+
+		val uploader = client.resumeOrCreateUpload(upload);
+		assertEquals(uploadUrl,uploader.getUploadURL());
+		assertEquals(OFFSET,uploader.getOffset());
+		while (uploader.uploadChunk() > -1)
+			;
+		uploader.finish();
+
+		assertFalse(requests.contains("POST /files"));
+		assertEquals("HEAD /files/" + FILE_ID,requests.get(0));
+		assertArrayEquals(Arrays.copyOfRange(CONTENT,(int)OFFSET,CONTENT.length),received.toByteArray());
+	}
+
+	@Test
+	void encodedUploadHasItsOwnUrl() throws Exception
+	{
+		val store = new TusUrlDAO(db.getQueryFactory());
+		val plainUrl = new URL("http://localhost/files/plain");
+		val encodedUrl = new URL("http://localhost/files/encoded");
+		store.set(String.valueOf(FILE_ID),plainUrl);
+		assertNull(store.get(FILE_ID + ".gzip"));
+		store.set(FILE_ID + ".gzip",encodedUrl);
+		assertNull(store.get(String.valueOf(FILE_ID)));
+		assertEquals(encodedUrl,store.get(FILE_ID + ".gzip"));
+		store.remove(FILE_ID + ".gzip");
+		assertNull(store.get(FILE_ID + ".gzip"));
+	}
+
+	@Test
+	void deleteTaskRemovesEncodedUpload() throws Exception
+	{
+		val store = new CachedTusURLStore(new TusUrlDAO(db.getQueryFactory()));
+		val manager = new UploadTaskManager(new UploadTaskDAOImpl(db.getQueryFactory(),false),store,Mockito.mock(RetryPolicy.class),"node",60_000,0,0,Mockito.mock(TaskNotifier.class));
+		store.set(FILE_ID + ".gzip",new URL("http://localhost/files/encoded"));
+		assertTrue(manager.deleteTask(FILE_ID));
+
+		// a new task for the same file starts a new upload
+		insertTask();
+		assertNull(store.get(FILE_ID + ".gzip"));
+		assertNull(new TusUrlDAO(db.getQueryFactory()).get(FILE_ID + ".gzip"));
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		val override = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+		val method = override != null ? override : exchange.getRequestMethod();
+		requests.add(method + " " + exchange.getRequestURI().getPath());
+		exchange.getResponseHeaders().add("Tus-Resumable","1.0.0");
+		if ("HEAD".equals(method))
+		{
+			exchange.getResponseHeaders().add("Upload-Offset",String.valueOf(OFFSET + received.size()));
+			exchange.getResponseHeaders().add("Upload-Length",String.valueOf(CONTENT.length));
+			exchange.sendResponseHeaders(200,-1);
+		}
+		else if ("PATCH".equals(method))
+		{
+			val buffer = new byte[CONTENT.length];
+			int n;
+			while ((n = exchange.getRequestBody().read(buffer)) != -1)
+				received.write(buffer,0,n);
+			exchange.getResponseHeaders().add("Upload-Offset",String.valueOf(OFFSET + received.size()));
+			exchange.sendResponseHeaders(204,-1);
+		}
+		else
+			exchange.sendResponseHeaders(405,-1);
+		exchange.close();
+	}
+
+	private void insertFile() throws SQLException
+	{
+		try (val file = db.getConnection().prepareStatement("INSERT INTO file (id,url,path,time_stamp) VALUES (?,?,?,?)"))
+		{
+			file.setLong(1,FILE_ID);
+			file.setString(2,"http://localhost/file/" + FILE_ID);
+			file.setString(3,"file" + FILE_ID);
+			file.setTimestamp(4,Timestamp.from(Instant.now()));
+			file.executeUpdate();
+		}
+	}
+
+	private void insertTask() throws SQLException
+	{
+		val time = Timestamp.from(Instant.now());
+		try (val task = db.getConnection().prepareStatement("INSERT INTO upload_task (file_id,creation_url,time_stamp,status,status_time,schedule_time,retries) VALUES (?,?,?,?,?,?,0)"))
+		{
+			task.setLong(1,FILE_ID);
+			task.setString(2,"http://localhost/files");
+			task.setTimestamp(3,time);
+			task.setInt(4,UploadStatus.RUNNING.ordinal());
+			task.setTimestamp(5,time);
+			task.setTimestamp(6,time);
+			task.executeUpdate();
+		}
+	}
+}